@@ -0,0 +1,120 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+// The pipeline lives in the default package, which JMH will not host and packaged code cannot import.
+// Handles are resolved once into static finals so the JIT can inline straight through them.
+final class Api {
+
+    static final Class<?> SERIES = load("QoSSeries");
+    static final Class<?> MODEL = load("VARPipelineFull$VARModel");
+    static final Class<?> KERNEL = load("ForecastKernel");
+    static final Class<?> READER = load("QoSCsvReader");
+    static final Class<?> STATS = load("QoSCsvReader$Stats");
+    static final Class<?> ADF = load("VARPipelineFull$ADFTest");
+    static final Class<?> LAG = load("VARPipelineFull$LagSelector");
+    static final Class<?> ERRORS = load("ForecastErrors");
+    static final Class<?> GRAM = load("VARGram");
+    static final Class<?> SOLVER = load("OlsSolver");
+    static final Class<?> BINARY = load("QoSBinary");
+
+    static final MethodHandle SERIES_ALLOCATE = method(SERIES, "allocate", String[].class, int.class);
+    static final MethodHandle SERIES_COLUMN = method(SERIES, "column", int.class);
+    static final MethodHandle SERIES_SLICE = method(SERIES, "slice", int.class, int.class);
+    static final MethodHandle MODEL_NEW = constructor(MODEL, int.class, int.class);
+    static final MethodHandle MODEL_FIT = method(MODEL, "fit", SERIES);
+    static final MethodHandle MODEL_KERNEL = method(MODEL, "kernel");
+    static final MethodHandle MODEL_FORECAST = method(MODEL, "forecastRecursive", SERIES, int.class);
+    static final MethodHandle KERNEL_RESET = method(KERNEL, "reset", SERIES, int.class);
+    static final MethodHandle KERNEL_FORECAST = method(KERNEL, "forecast", int.class, SERIES, double[].class);
+    static final MethodHandle READER_LOAD = method(READER, "load", String.class, int.class, int.class, boolean.class, STATS);
+    static final MethodHandle ADF_RUN = method(ADF, "runADF", double[].class, int.class, int.class, int.class);
+    static final MethodHandle ADF_AUTO = method(ADF, "runADFAuto", double[].class, int.class, int.class, int.class);
+    static final MethodHandle LAG_SELECT = method(LAG, "select", SERIES, int.class, boolean.class, java.io.PrintStream.class);
+    static final MethodHandle ERRORS_NEW = constructor(ERRORS, String[].class, int.class, double[].class);
+    static final MethodHandle ERRORS_ADD_PATH = method(ERRORS, "addPath", SERIES, SERIES);
+    static final MethodHandle ERRORS_MERGE = method(ERRORS, "merge", ERRORS);
+    static final MethodHandle GRAM_COMPUTE = method(GRAM, "compute", SERIES, int.class);
+    static final MethodHandle GRAM_XTX = method(GRAM, "xtx", int.class);
+    static final MethodHandle GRAM_XTY = method(GRAM, "xty", int.class);
+    static final MethodHandle SOLVER_BY_NAME = method(SOLVER, "byName", String.class);
+    static final MethodHandle SOLVER_SOLVE_GRAM = method(SOLVER, "solve", GRAM, int.class);
+    static final MethodHandle SOLVER_SOLVE_SERIES = method(SOLVER, "solve", SERIES, int.class);
+    static final MethodHandle BINARY_WRITE = method(BINARY, "write", SERIES, String.class, boolean.class);
+    static final MethodHandle BINARY_MAP = method(BINARY, "map", String.class);
+
+    private Api() { }
+
+    static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("pipeline classes not on the classpath: " + name, e);
+        }
+    }
+
+    static MethodHandle method(Class<?> owner, String name, Class<?>... params) {
+        try {
+            Method m = owner.getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            MethodHandle h = MethodHandles.lookup().unreflect(m);
+            return h.asType(erase(h.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getName() + "." + name, e);
+        }
+    }
+
+    static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            Constructor<?> c = owner.getDeclaredConstructor(params);
+            c.setAccessible(true);
+            MethodHandle h = MethodHandles.lookup().unreflectConstructor(c);
+            return h.asType(erase(h.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getName() + ".<init>", e);
+        }
+    }
+
+    static Object series(double[][] cols) {
+        try {
+            String[] names = new String[cols.length];
+            for (int j = 0; j < cols.length; j++) names[j] = "V" + (j + 1);
+            Object s = (Object) SERIES_ALLOCATE.invokeExact((Object) names, cols[0].length);
+            for (int j = 0; j < cols.length; j++) {
+                double[] dst = (double[]) (Object) SERIES_COLUMN.invokeExact(s, j);
+                System.arraycopy(cols[j], 0, dst, 0, cols[j].length);
+            }
+            return s;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object fittedModel(Object series, int n, int p) {
+        try {
+            Object m = (Object) MODEL_NEW.invokeExact(n, p);
+            MODEL_FIT.invokeExact(m, series);
+            return m;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new RuntimeException(t);
+    }
+
+    // reference types become Object, primitives stay put so invokeExact call sites never box
+    static MethodType erase(MethodType t) {
+        Class<?>[] params = t.parameterArray();
+        for (int i = 0; i < params.length; i++) if (!params[i].isPrimitive()) params[i] = Object.class;
+        Class<?> ret = t.returnType().isPrimitive() ? t.returnType() : Object.class;
+        return MethodType.methodType(ret, params);
+    }
+}
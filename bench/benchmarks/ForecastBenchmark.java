@@ -0,0 +1,92 @@
+package benchmarks;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+// Recursive multi-step forecasting: the pre-kernel Deque/B.transpose() loop vs ForecastKernel.
+// Run with -prof gc; the kernelInto case should report ~0 B/op.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForecastBenchmark {
+
+    @Param({"1", "4", "12"})
+    int p;
+
+    @Param({"1000", "10000"})
+    int steps;
+
+    static final int N = Synthetic.NAMES.length;
+
+    Object train, model, kernel, out;
+    double[] scratch;
+    RealMatrix B;
+    double[][] tail;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        double[][] cols = Synthetic.columns(20_000, 7L);
+        train = Api.series(cols);
+        model = Api.fittedModel(train, N, p);
+        kernel = (Object) Api.MODEL_KERNEL.invokeExact(model);
+        out = Api.series(new double[N][steps]);
+        scratch = new double[N];
+        Field f = Api.MODEL.getDeclaredField("B");
+        f.setAccessible(true);
+        B = (RealMatrix) f.get(model);
+        tail = new double[p][N];
+        for (int l = 0; l < p; l++) for (int j = 0; j < N; j++) tail[l][j] = cols[j][cols[j].length - p + l];
+    }
+
+    @Benchmark
+    public Object kernelInto() throws Throwable {
+        Api.KERNEL_RESET.invokeExact(kernel, train, 20_000);
+        Api.KERNEL_FORECAST.invokeExact(kernel, steps, out, (Object) scratch);
+        return out;
+    }
+
+    @Benchmark
+    public Object forecastRecursive() throws Throwable {
+        return (Object) Api.MODEL_FORECAST.invokeExact(model, train, steps);
+    }
+
+    @Benchmark
+    public double[][] legacyDeque() {
+        Deque<double[]> window = new ArrayDeque<>();
+        for (double[] row : tail) window.addLast(Arrays.copyOf(row, N));
+        double[][] preds = new double[steps][N];
+        for (int t = 0; t < steps; t++) {
+            double[] x = new double[1 + N * p];
+            x[0] = 1.0;
+            double[][] arr = window.toArray(new double[0][0]);
+            for (int lag = 1; lag <= p; lag++)
+                for (int j = 0; j < N; j++)
+                    x[(lag - 1) * N + 1 + j] = arr[arr.length - lag][j];
+            double[] yhat = B.transpose().operate(x);
+            preds[t] = yhat;
+            window.pollFirst();
+            window.addLast(Arrays.copyOf(yhat, N));
+        }
+        return preds;
+    }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class LoadBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    Path csv, bin;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws Throwable {
+        double[][] cols = Synthetic.columns(rows, 42L);
+        csv = Files.createTempFile("qos-bench", ".csv");
+        try (BufferedWriter w = Files.newBufferedWriter(csv, StandardCharsets.US_ASCII)) {
+            w.write("Time,MOS,BW,JIT,RTT,DJB,SNR\n");
+            for (int t = 0; t < rows; t++) {
+                w.write(Integer.toString(t));
+                for (double[] c : cols) w.write(String.format(Locale.ROOT, ",%.4f", c[t]));
+                w.write('\n');
+            }
+        }
+        bin = Files.createTempFile("qos-bench", ".qosb");
+        Object series = Api.READER_LOAD.invokeExact((Object) csv.toString(), 1, 6, true, (Object) null);
+        Api.BINARY_WRITE.invokeExact(series, (Object) bin.toString(), false);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(bin);
+    }
+
+    @Benchmark
+    public Object loadCsv() throws Throwable {
+        return (Object) Api.READER_LOAD.invokeExact((Object) csv.toString(), 1, 6, true, (Object) null);
+    }
+
+    // mapped QoSBinary file, copied onto the heap as the pipeline needs it
+    @Benchmark
+    public Object loadBinary() throws Throwable {
+        return (Object) Api.READER_LOAD.invokeExact((Object) bin.toString(), 1, 6, true, (Object) null);
+    }
+
+    // mapping alone: header parse plus zero-copy column views
+    @Benchmark
+    public Object mapBinary() throws Throwable {
+        return (Object) Api.BINARY_MAP.invokeExact((Object) bin.toString());
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// ForecastErrors over a whole series taken as one forecast path (row t = t + 1 steps ahead), and the merge of two
+// filled accumulators as VARBatch does per cell
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class MetricsBenchmark {
+
+    static final int HORIZONS = 48;
+
+    Object predictions;
+    Object filled;
+
+    @Setup(Level.Trial)
+    public void setup(SeriesState data) throws Throwable {
+        predictions = Api.series(Synthetic.columns(data.rows, 43L));
+        filled = errors();
+        Api.ERRORS_ADD_PATH.invokeExact(filled, data.series, predictions);
+    }
+
+    static Object errors() throws Throwable {
+        double[] scale = new double[SeriesState.N];
+        java.util.Arrays.fill(scale, 1.0);
+        return (Object) Api.ERRORS_NEW.invokeExact((Object) Synthetic.NAMES.clone(), HORIZONS, (Object) scale);
+    }
+
+    @Benchmark
+    public Object addPath(SeriesState data) throws Throwable {
+        Object e = errors();
+        Api.ERRORS_ADD_PATH.invokeExact(e, data.series, predictions);
+        return e;
+    }
+
+    @Benchmark
+    public Object merge() throws Throwable {
+        Object e = errors();
+        return (Object) Api.ERRORS_MERGE.invokeExact(e, filled);
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// ADF, fit and lag selection over SeriesState; p is the ADF lag (largest searched lag for adfAuto), the VAR order, or P_MAX for lag selection.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class PipelineBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12"})
+    int p;
+
+    @Benchmark
+    public Object adf(SeriesState data) throws Throwable {
+        return (Object) Api.ADF_RUN.invokeExact((Object) data.cols[0], 0, data.rows, p);
+    }
+
+    @Benchmark
+    public Object adfAuto(SeriesState data) throws Throwable {
+        return (Object) Api.ADF_AUTO.invokeExact((Object) data.cols[0], 0, data.rows, p);
+    }
+
+    @Benchmark
+    public Object fit(SeriesState data) throws Throwable {
+        return Api.fittedModel(data.series, SeriesState.N, p);
+    }
+
+    @Benchmark
+    public Object lagSelection(SeriesState data) throws Throwable {
+        return (Object) Api.LAG_SELECT.invokeExact(data.series, p, true, (Object) null);
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Synthetic 6-variable QoS series shared by the suite; narrow with -p rows=... on the command line.
+@State(Scope.Benchmark)
+public class SeriesState {
+
+    static final int N = Synthetic.NAMES.length;
+
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    double[][] cols;
+    Object series;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        cols = Synthetic.columns(rows, 42L);
+        series = Api.series(cols);
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// VAR(p) least squares: OlsSolver variants against the pre-solver path ("legacy": dense X, X'X by
+// RealMatrix multiply, LU with SVD fallback). fit starts from the series, solve from a precomputed Gram.
+// ridge:bic and lasso:bic fit a whole lambda path and keep the BIC-best point, so they time a full selection.
+// n = 40 is a probe export with ~40 KPIs (1+n*p up to 481 regressors); legacy fit at n=40, rows=1e6 needs a larger -Xmx.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class SolverBenchmark {
+
+    @Param({"legacy", "cholesky", "qr", "ridge:0.001", "ridge:bic", "lasso:bic"})
+    String solver;
+
+    @Param({"1", "4", "12"})
+    int p;
+
+    @Param({"10000", "1000000"})
+    int rows;
+
+    @Param({"6", "40"})
+    int n;
+
+    double[][] cols;
+    Object series, gram, impl;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        cols = Synthetic.columns(n, rows, 42L);
+        series = Api.series(cols);
+        gram = (Object) Api.GRAM_COMPUTE.invokeExact(series, p);
+        if (!solver.equals("legacy")) impl = (Object) Api.SOLVER_BY_NAME.invokeExact((Object) solver);
+    }
+
+    @Benchmark
+    public Object fit() throws Throwable {
+        if (impl == null) return legacyFit();
+        return (Object) Api.SOLVER_SOLVE_SERIES.invokeExact(impl, series, p);
+    }
+
+    @Benchmark
+    public Object solve() throws Throwable {
+        if (impl == null) {
+            RealMatrix XtX = MatrixUtils.createRealMatrix((double[][]) (Object) Api.GRAM_XTX.invokeExact(gram, p));
+            RealMatrix XtY = MatrixUtils.createRealMatrix((double[][]) (Object) Api.GRAM_XTY.invokeExact(gram, p));
+            return luOrSvd(XtX).solve(XtY);
+        }
+        return (Object) Api.SOLVER_SOLVE_GRAM.invokeExact(impl, gram, p);
+    }
+
+    RealMatrix legacyFit() {
+        int T = rows, K = 1 + n * p, L = T - p;
+        double[][] X = new double[L][K];
+        double[][] Y = new double[L][n];
+        for (int t = p; t < T; t++) {
+            int r = t - p;
+            X[r][0] = 1.0;
+            for (int lag = 1; lag <= p; lag++)
+                for (int j = 0; j < n; j++) X[r][1 + (lag - 1) * n + j] = cols[j][t - lag];
+            for (int j = 0; j < n; j++) Y[r][j] = cols[j][t];
+        }
+        RealMatrix Xmat = MatrixUtils.createRealMatrix(X);
+        RealMatrix Ymat = MatrixUtils.createRealMatrix(Y);
+        RealMatrix XtX = Xmat.transpose().multiply(Xmat);
+        return luOrSvd(XtX).solve(Xmat.transpose().multiply(Ymat));
+    }
+
+    static DecompositionSolver luOrSvd(RealMatrix XtX) {
+        DecompositionSolver s = new LUDecomposition(XtX).getSolver();
+        return s.isNonSingular() ? s : new SingularValueDecomposition(XtX).getSolver();
+    }
+}
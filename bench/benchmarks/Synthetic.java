@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+
+// Stable VAR(1) around typical MOS/BW/JIT/RTT/DJB/SNR levels, so fits and forecasts behave like real exports.
+final class Synthetic {
+
+    static final String[] NAMES = {"MOS", "BW", "JIT", "RTT", "DJB", "SNR"};
+    static final double[] MEAN = {3.8, 64.0, 12.0, 120.0, 40.0, 22.0};
+    static final double[] NOISE = {0.08, 3.0, 1.5, 6.0, 2.0, 0.7};
+    static final double[][] A = {
+            {0.55, 0.00, -0.02, -0.01, 0.00, 0.03},
+            {0.00, 0.60, 0.00, 0.00, 0.00, 0.05},
+            {0.00, -0.05, 0.50, 0.10, 0.00, 0.00},
+            {0.00, 0.00, 0.20, 0.70, 0.00, 0.00},
+            {0.00, 0.00, 0.30, 0.00, 0.40, 0.00},
+            {0.00, 0.00, 0.00, 0.00, 0.00, 0.75}};
+
+    private Synthetic() { }
+
+    static double[][] columns(int rows, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        int n = MEAN.length;
+        double[][] cols = new double[n][rows];
+        double[] dev = new double[n], next = new double[n];
+        for (int t = 0; t < rows; t++) {
+            for (int i = 0; i < n; i++) {
+                double s = 0;
+                for (int j = 0; j < n; j++) s += A[i][j] * dev[j];
+                next[i] = s + NOISE[i] * gaussian(rnd);
+            }
+            for (int i = 0; i < n; i++) {
+                dev[i] = next[i];
+                cols[i][t] = MEAN[i] + dev[i];
+            }
+        }
+        return cols;
+    }
+
+    // n metrics: the six above repeated with their own noise, each coupled to its predecessor so the regressors are not
+    // independent; stays stable because A is lower bidiagonal with a diagonal below 1
+    static double[][] columns(int n, int rows, long seed) {
+        if (n == MEAN.length) return columns(rows, seed);
+        SplittableRandom rnd = new SplittableRandom(seed);
+        double[][] cols = new double[n][rows];
+        double[] dev = new double[n];
+        for (int t = 0; t < rows; t++) {
+            for (int i = n - 1; i >= 0; i--) {
+                int b = i % MEAN.length;
+                dev[i] = 0.5 * dev[i] + (i > 0 ? 0.2 * dev[i - 1] : 0.0) + NOISE[b] * gaussian(rnd);
+                cols[i][t] = MEAN[b] + dev[i];
+            }
+        }
+        return cols;
+    }
+
+    static double gaussian(SplittableRandom rnd) {
+        double u = rnd.nextDouble(), v = rnd.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(1.0 - u)) * Math.cos(2.0 * Math.PI * v);
+    }
+}
@@ -0,0 +1,113 @@
+import java.nio.file.Paths;
+
+// Rolling-origin (walk-forward) evaluation of VAR(p) forecasts.
+// Between origins the Gram matrix is moved with rank-k updates/downdates instead of refitting from the data.
+public class Backtester {
+
+    static final int REBUILD_EVERY = 256;   // sliding moves between exact Gram rebuilds, to bound downdate drift
+
+    final int p, horizon, step, initialWindow;
+    final boolean sliding;
+
+    ForecastErrors errors;   // by horizon and series; MASE against the naive scale of the initial window
+    int origins;
+
+    public Backtester(int p, int horizon, int step, int initialWindow, boolean sliding) {
+        this.p = p;
+        this.horizon = horizon;
+        this.step = step;
+        this.initialWindow = initialWindow;
+        this.sliding = sliding;
+    }
+
+    public void run(QoSSeries data) {
+        int n = data.width(), T = data.length();
+        if (initialWindow <= p + n * p + 1) throw new IllegalArgumentException("initial window too small for p=" + p);
+        errors = new ForecastErrors(data.names(), horizon, ForecastErrors.naiveScale(data.slice(0, initialWindow)));
+
+        int start = 0, origin = initialWindow, moves = 0;
+        VARGram g = VARGram.compute(data.slice(0, origin), p);
+        VARPipelineFull.VARModel model = new VARPipelineFull.VARModel(n, p);
+        double[] out = new double[n];
+
+        while (origin < T) {
+            model.fit(g);
+            ForecastKernel k = model.kernel();
+            k.reset(data, origin);
+            int h = Math.min(horizon, T - origin);
+            for (int s = 0; s < h; s++) {
+                k.step(out, 0);
+                for (int j = 0; j < n; j++) errors.add(s, j, data.get(origin + s, j), out[j]);
+            }
+            origins++;
+
+            int next = Math.min(T, origin + step);
+            if (next >= T) break;
+            g.add(data, origin, next);
+            if (sliding) {
+                int newStart = next - initialWindow;
+                g.remove(data, start + p, newStart + p);
+                start = newStart;
+                if (++moves % REBUILD_EVERY == 0) g = VARGram.compute(data.slice(start, next), p);
+            }
+            origin = next;
+        }
+    }
+
+    public void print(String[] names) {
+        System.out.printf("Origins: %d, horizon: %d, step: %d, %s window of %d rows, p=%d%n",
+                origins, horizon, step, sliding ? "sliding" : "expanding", initialWindow, p);
+        for (int s = 0; s < horizon; s++) {
+            if (errors.metrics(s, 0)[0] == 0) continue;
+            StringBuilder sb = new StringBuilder(String.format("h=%-3d", s + 1));
+            for (int j = 0; j < names.length; j++)
+                sb.append(String.format("  %s RMSE %.4f", names[j], errors.metrics(s, j)[2]));
+            System.out.println(sb);
+        }
+        System.out.println("All horizons:");
+        errors.print(System.out);
+    }
+
+    // per horizon and series, see ForecastErrors.write
+    public void save(String file) throws Exception {
+        errors.write(Paths.get(file));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java Backtester <csv_file> [horizon] [origins] [expanding|sliding] [p|auto] [columns|all]");
+            return;
+        }
+        int horizon = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        int maxOrigins = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        boolean sliding = args.length > 3 && args[3].equalsIgnoreCase("sliding");
+        String pArg = args.length > 4 ? args[4] : "auto";
+        String columns = args.length > 5 ? args[5] : "all";
+
+        // OLS with an intercept is affine-equivariant per series, so z-scoring would not change the forecasts
+        QoSSeries data = VARPipelineFull.DataIO.loadCSV(args[0], columns);
+        if (VARPipelineFull.AUTO_ADF_DIFF) VARPipelineFull.differenceToStationary(data, System.out);
+
+        int T = data.length();
+        int window = (int) Math.round(T * VARPipelineFull.TRAIN_FRACTION);
+        int step = Math.max(1, (T - window) / maxOrigins);
+        int p;
+        if (pArg.equalsIgnoreCase("auto")) {
+            int pMax = Math.min(VARPipelineFull.P_MAX, window - 1);
+            p = VARPipelineFull.LagSelector.select(data.slice(0, window), pMax, VARPipelineFull.SELECT_BY_AIC, null).bestP;
+            System.out.println("Selected p* = " + p + " on the initial window");
+        } else {
+            p = Integer.parseInt(pArg);
+        }
+
+        Backtester bt = new Backtester(p, horizon, step, window, sliding);
+        long t0 = System.nanoTime();
+        bt.run(data);
+        System.out.printf("Backtest finished in %.3f s%n", (System.nanoTime() - t0) / 1e9);
+        String[] names = new String[data.width()];
+        for (int j = 0; j < names.length; j++) names[j] = data.name(j);
+        bt.print(names);
+        bt.save("VAR_backtest.csv");
+        System.out.println("Saved VAR_backtest.csv");
+    }
+}
@@ -1,65 +1,75 @@
-import com.opencsv.CSVReader;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.CategoryPlot;
 import org.jfree.chart.renderer.category.BoxAndWhiskerRenderer;
+import org.jfree.data.statistics.BoxAndWhiskerCalculator;
+import org.jfree.data.statistics.BoxAndWhiskerItem;
 import org.jfree.data.statistics.DefaultBoxAndWhiskerCategoryDataset;
 
 import javax.swing.*;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.IntStream;
 
+// Box statistics come from one streaming pass per column (Summary), never from a boxed List<Double> of every sample:
+// the quartiles from a KLL sketch, count/mean/min/max exactly, and outliers from the exact smallest and largest TAIL
+// values. Files and row chunks of each column are summarized in parallel and merged; pass several CSV files (same
+// column layout) to pool them into one box per metric.
 public class BoxPlot {
-    public static void main(String[] args) {
-        String csvFile = "first.csv"; // <-- replace with your dataset file
-        DefaultBoxAndWhiskerCategoryDataset dataset = new DefaultBoxAndWhiskerCategoryDataset();
 
-        try (CSVReader reader = new CSVReader(new FileReader(csvFile))) {
-            String[] headers = reader.readNext(); // first row = headers
-
-            // prepare lists for six QoS variables
-            List<Double> mos = new ArrayList<>();
-            List<Double> delay = new ArrayList<>();
-            List<Double> jitter = new ArrayList<>();
-            List<Double> throughput = new ArrayList<>();
-            List<Double> packetLoss = new ArrayList<>();
-            List<Double> bandwidth = new ArrayList<>();
-
-            String[] line;
-            while ((line = reader.readNext()) != null) {
-                if (line.length >= 6) {
-                    mos.add(Double.parseDouble(line[0]));
-                    delay.add(Double.parseDouble(line[1]));
-                    jitter.add(Double.parseDouble(line[2]));
-                    throughput.add(Double.parseDouble(line[3]));
-                    packetLoss.add(Double.parseDouble(line[4]));
-                    bandwidth.add(Double.parseDouble(line[5]));
-                }
-            }
+    static final String[] KEYS = {"MOS", "Delay", "Jitter", "Throughput", "Packet Loss", "Bandwidth"};
+    static final int CHUNK = 1 << 18;   // rows per parallel summary task
 
-            // add data into dataset for boxplot
-            dataset.add(mos, "MOS", "MOS");
-            dataset.add(delay, "Delay", "Delay");
-            dataset.add(jitter, "Jitter", "Jitter");
-            dataset.add(throughput, "Throughput", "Throughput");
-            dataset.add(packetLoss, "Packet Loss", "Packet Loss");
-            dataset.add(bandwidth, "Bandwidth", "Bandwidth");
+    public static void main(String[] args) {
+        String[] files = args.length > 0 ? args : new String[]{"first.csv"}; // <-- replace with your dataset file(s)
+        Summary[] all = new Summary[0];
 
+        try {
+            all = Arrays.stream(files).parallel().map(f -> {
+                try {
+                    QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+                    QoSSeries data = QoSCsvReader.load(f, 0, KEYS.length, false, stats); // first row = headers
+                    System.out.println(f + ": " + stats);
+                    return summarize(data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).reduce(BoxPlot::merge).orElseThrow(IllegalStateException::new);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        // create boxplot chart
-        JFreeChart chart = ChartFactory.createBoxAndWhiskerChart(
-                "QoS Metrics Boxplot", // chart title
-                "QoS Metric",          // x-axis label
-                "Value",               // y-axis label
-                dataset,
-                true
-        );
+        // create boxplot chart from precomputed items for the six QoS variables
+        JFreeChart chart = create("QoS Metrics Boxplot", "QoS Metric", "Value", all, KEYS);
+        CategoryPlot plot = (CategoryPlot) chart.getPlot();
+
+        // set Y-axis range 0–250 with tick unit 50
+        NumberAxis yAxis = (NumberAxis) plot.getRangeAxis();
+        yAxis.setRange(0, 250);
+        yAxis.setTickUnit(new org.jfree.chart.axis.NumberTickUnit(50));
+
+        // show chart
+        JFrame frame = new JFrame("Boxplot Example");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.add(new ChartPanel(chart));
+        frame.pack();
+        frame.setVisible(true);
+    }
+
+    // one box per non-empty summary (keys name them) with the usual styling; the value axis auto-scales
+    public static JFreeChart create(String title, String xLabel, String yLabel, Summary[] summaries, String[] keys) {
+        DefaultBoxAndWhiskerCategoryDataset dataset = new DefaultBoxAndWhiskerCategoryDataset();
+        for (int j = 0; j < summaries.length; j++) {
+            if (summaries[j].count == 0) continue;
+            dataset.add(summaries[j].toItem(), keys[j], keys[j]);
+        }
+        JFreeChart chart = ChartFactory.createBoxAndWhiskerChart(title, xLabel, yLabel, dataset, true);
 
         // customize plot
         CategoryPlot plot = (CategoryPlot) chart.getPlot();
@@ -74,17 +84,143 @@ public class BoxPlot {
         renderer.setMeanVisible(false);                                // hide mean dots
         renderer.setDefaultOutlinePaint(java.awt.Color.RED);           // red for outliers
         plot.setRenderer(renderer);
+        ((NumberAxis) plot.getRangeAxis()).setAutoRangeIncludesZero(false);
+        return chart;
+    }
 
-        // set Y-axis range 0–250 with tick unit 50
-        NumberAxis yAxis = (NumberAxis) plot.getRangeAxis();
-        yAxis.setRange(0, 250);
-        yAxis.setTickUnit(new org.jfree.chart.axis.NumberTickUnit(50));
+    // one Summary per column, each merged from row chunks summarized in parallel
+    static Summary[] summarize(QoSSeries data) {
+        int n = data.length(), chunks = Math.max(1, (n + CHUNK - 1) / CHUNK);
+        Summary[] out = new Summary[data.width()];
+        for (int j = 0; j < out.length; j++) {
+            double[] c = data.column(j);
+            int off = data.offset();
+            out[j] = IntStream.range(0, chunks).parallel()
+                    .mapToObj(k -> new Summary().add(c, off + k * CHUNK, off + Math.min(n, (k + 1) * CHUNK)))
+                    .reduce(Summary::merge).get();
+        }
+        return out;
+    }
 
-        // show chart
-        JFrame frame = new JFrame("Boxplot Example");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.add(new ChartPanel(chart));
-        frame.pack();
-        frame.setVisible(true);
+    static Summary[] merge(Summary[] a, Summary[] b) {
+        for (int j = 0; j < a.length; j++) a[j].merge(b[j]);
+        return a;
+    }
+
+    // Mergeable one-pass box statistics. low is a max-heap of the TAIL smallest values, high a min-heap of the TAIL
+    // largest; while fewer than TAIL values have been seen both hold all of them, so small columns are exact.
+    static final class Summary {
+        static final int TAIL = 256;
+
+        long count;
+        double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        final QuantileSketch sketch = new QuantileSketch();
+        final double[] low = new double[TAIL], high = new double[TAIL];
+        int nLow, nHigh;
+
+        Summary add(double[] v, int from, int to) {
+            for (int i = from; i < to; i++) add(v[i]);
+            return this;
+        }
+
+        void add(double v) {
+            if (Double.isNaN(v)) return;
+            count++;
+            sum += v;
+            if (v < min) min = v;
+            if (v > max) max = v;
+            sketch.add(v);
+            if (nLow < TAIL) up(low, nLow++, v, -1);
+            else if (v < low[0]) down(low, TAIL, v, -1);
+            if (nHigh < TAIL) up(high, nHigh++, v, 1);
+            else if (v > high[0]) down(high, TAIL, v, 1);
+        }
+
+        Summary merge(Summary o) {
+            count += o.count;
+            sum += o.sum;
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+            sketch.merge(o.sketch);
+            for (int i = 0; i < o.nLow; i++) {
+                double v = o.low[i];
+                if (nLow < TAIL) up(low, nLow++, v, -1);
+                else if (v < low[0]) down(low, TAIL, v, -1);
+            }
+            for (int i = 0; i < o.nHigh; i++) {
+                double v = o.high[i];
+                if (nHigh < TAIL) up(high, nHigh++, v, 1);
+                else if (v > high[0]) down(high, TAIL, v, 1);
+            }
+            return this;
+        }
+
+        // Same rules as BoxAndWhiskerCalculator: outliers beyond 1.5 IQR, minOutlier/maxOutlier the extreme outliers
+        // within 2 IQR (far-outs beyond), falling back to the regular extremes. Values beyond the thresholds are
+        // read from the exact tails, so at most 2 TAIL outliers are listed; when a tail lies entirely past a
+        // threshold the extreme inside it comes from the sketch. Up to TAIL values the calculator itself is used.
+        BoxAndWhiskerItem toItem() {
+            if (count <= TAIL) {
+                List<Double> all = new ArrayList<>(nLow);
+                for (int i = 0; i < nLow; i++) all.add(low[i]);
+                return BoxAndWhiskerCalculator.calculateBoxAndWhiskerStatistics(all);
+            }
+            double q1 = sketch.quantile(0.25), median = sketch.quantile(0.5), q3 = sketch.quantile(0.75);
+            double iqr = q3 - q1;
+            double loOut = q1 - 1.5 * iqr, hiOut = q3 + 1.5 * iqr, loFar = q1 - 2.0 * iqr, hiFar = q3 + 2.0 * iqr;
+            double minRegular = Double.POSITIVE_INFINITY, maxRegular = Double.NEGATIVE_INFINITY;
+            double minOutlier = Double.POSITIVE_INFINITY, maxOutlier = Double.NEGATIVE_INFINITY;
+            List<Double> outliers = new ArrayList<>();
+            for (int i = 0; i < nLow; i++) {
+                double v = low[i];
+                if (v < loOut) {
+                    outliers.add(v);
+                    if (v >= loFar) minOutlier = Math.min(minOutlier, v);
+                } else if (v <= hiOut) {
+                    minRegular = Math.min(minRegular, v);
+                }
+            }
+            for (int i = 0; i < nHigh; i++) {
+                double v = high[i];
+                if (v > hiOut) {
+                    outliers.add(v);
+                    if (v <= hiFar) maxOutlier = Math.max(maxOutlier, v);
+                } else if (v >= loOut) {
+                    maxRegular = Math.max(maxRegular, v);
+                }
+            }
+            if (minRegular == Double.POSITIVE_INFINITY) minRegular = sketch.ceiling(loOut);
+            if (maxRegular == Double.NEGATIVE_INFINITY) maxRegular = sketch.floor(hiOut);
+            if (minOutlier == Double.POSITIVE_INFINITY && low[0] < loFar) minOutlier = sketch.ceiling(loFar);
+            if (maxOutlier == Double.NEGATIVE_INFINITY && high[0] > hiFar) maxOutlier = sketch.floor(hiFar);
+            Collections.sort(outliers);
+            return new BoxAndWhiskerItem(sum / count, median, q1, q3, minRegular, maxRegular,
+                    Math.min(minOutlier, minRegular), Math.max(maxOutlier, maxRegular), outliers);
+        }
+
+        // sift-up into heap[0..i] (sign -1: max-heap, +1: min-heap)
+        static void up(double[] heap, int i, double v, int sign) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (sign * (heap[parent] - v) <= 0) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = v;
+        }
+
+        // replaces the root of heap[0..n) with v and sifts it down
+        static void down(double[] heap, int n, double v, int sign) {
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= n) break;
+                if (c + 1 < n && sign * (heap[c + 1] - heap[c]) < 0) c++;
+                if (sign * (heap[c] - v) >= 0) break;
+                heap[i] = heap[c];
+                i = c;
+            }
+            heap[i] = v;
+        }
     }
 }
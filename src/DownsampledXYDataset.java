@@ -0,0 +1,227 @@
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
+import org.jfree.data.DomainInfo;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// XYDataset over raw primitive columns that hands JFreeChart at most `points` items per series: the rows inside the
+// visible domain range, reduced by LTTB (largest triangle three buckets) or min/max per bucket, plus one row beyond
+// each edge so lines run off the plot. follow(axis) recomputes the view whenever the axis range changes (zoom, pan,
+// reset), so the cost of a repaint follows the plot width rather than the series length.
+// x is the row index unless an ascending x column is given. Domain bounds report the whole series, so auto-range
+// (zoom reset) returns to the full extent; range bounds report the visible view. Renderers that bound only the
+// visible series iterate the items instead, which is why an auto-ranging followed axis gets the full view.
+public class DownsampledXYDataset extends AbstractXYDataset implements DomainInfo, RangeInfo, AxisChangeListener {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Mode { LTTB, MIN_MAX }
+
+    static final int DEFAULT_POINTS = 2000;
+
+    final Mode mode;
+    final int points;
+    final List<Raw> series = new ArrayList<>();
+    double lower = Double.NEGATIVE_INFINITY, upper = Double.POSITIVE_INFINITY;
+
+    public DownsampledXYDataset() { this(Mode.MIN_MAX, DEFAULT_POINTS); }
+
+    public DownsampledXYDataset(Mode mode, int points) {
+        if (points < 4) throw new IllegalArgumentException("need at least 4 points per view: " + points);
+        this.mode = mode;
+        this.points = points;
+    }
+
+    // y[0..n) against the row index
+    public DownsampledXYDataset add(String key, double[] y, int n) { return add(key, null, y, 0, n); }
+
+    // y[off..off+n) against x[off..off+n) (ascending), or against 0..n-1 when x is null; the arrays are not copied
+    public DownsampledXYDataset add(String key, double[] x, double[] y, int off, int n) {
+        Raw r = new Raw(key, x, y, off, n, points);
+        series.add(r);
+        r.view(mode, points, lower, upper);
+        fireDatasetChanged();
+        return this;
+    }
+
+    // keeps the view in step with the axis; the axis is usually the plot's domain axis
+    public void follow(ValueAxis axis) {
+        axis.addChangeListener(this);
+        track(axis);
+    }
+
+    @Override
+    public void axisChanged(AxisChangeEvent event) { track((ValueAxis) event.getAxis()); }
+
+    // an auto-ranging axis sizes itself from the items, so it gets the whole series (zoom reset); the axis then
+    // re-fits to the new view and calls back with the full range, which is already shown
+    void track(ValueAxis axis) {
+        if (axis.isAutoRange()) setRange(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        else setRange(axis.getLowerBound(), axis.getUpperBound());
+    }
+
+    // recomputes the views for the domain range [lower, upper]; a range already shown is a no-op
+    public void setRange(double lower, double upper) {
+        if (lower == this.lower && upper == this.upper) return;
+        this.lower = lower;
+        this.upper = upper;
+        for (Raw r : series) r.view(mode, points, lower, upper);
+        fireDatasetChanged();
+    }
+
+    @Override public int getSeriesCount() { return series.size(); }
+    @Override public Comparable<?> getSeriesKey(int s) { return series.get(s).key; }
+    @Override public int getItemCount(int s) { return series.get(s).count; }
+    @Override public Number getX(int s, int i) { return getXValue(s, i); }
+    @Override public Number getY(int s, int i) { return getYValue(s, i); }
+    @Override public double getXValue(int s, int i) { return series.get(s).vx[i]; }
+    @Override public double getYValue(int s, int i) { return series.get(s).vy[i]; }
+
+    @Override
+    public double getDomainLowerBound(boolean includeInterval) {
+        double lo = Double.NaN;
+        for (Raw r : series) if (r.n > 0) lo = Double.isNaN(lo) ? r.x(0) : Math.min(lo, r.x(0));
+        return lo;
+    }
+
+    @Override
+    public double getDomainUpperBound(boolean includeInterval) {
+        double hi = Double.NaN;
+        for (Raw r : series) if (r.n > 0) hi = Double.isNaN(hi) ? r.x(r.n - 1) : Math.max(hi, r.x(r.n - 1));
+        return hi;
+    }
+
+    @Override
+    public Range getDomainBounds(boolean includeInterval) {
+        double lo = getDomainLowerBound(includeInterval);
+        return Double.isNaN(lo) ? null : new Range(lo, getDomainUpperBound(includeInterval));
+    }
+
+    @Override public double getRangeLowerBound(boolean includeInterval) { return viewBounds()[0]; }
+    @Override public double getRangeUpperBound(boolean includeInterval) { return viewBounds()[1]; }
+
+    @Override
+    public Range getRangeBounds(boolean includeInterval) {
+        double[] b = viewBounds();
+        return Double.isNaN(b[0]) ? null : new Range(b[0], b[1]);
+    }
+
+    double[] viewBounds() {
+        double lo = Double.NaN, hi = Double.NaN;
+        for (Raw r : series) {
+            for (int i = 0; i < r.count; i++) {
+                double v = r.vy[i];
+                if (Double.isNaN(v)) continue;
+                if (!(v >= lo)) lo = v;
+                if (!(v <= hi)) hi = v;
+            }
+        }
+        return new double[]{lo, hi};
+    }
+
+    // one raw series and its current view (vx/vy are reused across recomputations)
+    static final class Raw {
+        final String key;
+        final double[] x, y;
+        final int off, n;
+        final double[] vx, vy;
+        int count;
+
+        Raw(String key, double[] x, double[] y, int off, int n, int capacity) {
+            this.key = key;
+            this.x = x;
+            this.y = y;
+            this.off = off;
+            this.n = n;
+            this.vx = new double[capacity];
+            this.vy = new double[capacity];
+        }
+
+        double x(int i) { return x == null ? i : x[off + i]; }
+        double y(int i) { return y[off + i]; }
+
+        // first row with x >= v (n when none)
+        int ceil(double v) {
+            if (x == null) return (int) Math.max(0, Math.min(n, Math.ceil(v)));
+            int i = Arrays.binarySearch(x, off, off + n, v);
+            if (i < 0) return -i - 1 - off;
+            while (i > off && x[i - 1] == v) i--;
+            return i - off;
+        }
+
+        void view(Mode mode, int points, double lower, double upper) {
+            int from = 0, to = n;
+            if (upper >= lower) {
+                from = Math.max(0, ceil(lower) - 1);
+                to = Math.min(n, Math.max(from, ceil(upper)) + 1);
+            }
+            count = 0;
+            if (to - from <= points) {
+                for (int i = from; i < to; i++) emit(i);
+            } else if (mode == Mode.LTTB) {
+                lttb(from, to, points);
+            } else {
+                minMax(from, to, points);
+            }
+        }
+
+        void emit(int i) {
+            vx[count] = x(i);
+            vy[count++] = y(i);
+        }
+
+        // keeps the first and last row; each of the points-2 buckets in between contributes the row spanning the largest
+        // triangle with the previously kept row and the mean of the next bucket
+        void lttb(int from, int to, int points) {
+            double every = (double) (to - from - 2) / (points - 2);
+            int a = from;
+            emit(a);
+            for (int b = 0; b < points - 2; b++) {
+                int s = from + 1 + (int) (b * every), e = from + 1 + (int) ((b + 1) * every);
+                int ns = e, ne = Math.min(to - 1, from + 1 + (int) ((b + 2) * every));
+                double mx = 0, my = 0;
+                if (ne > ns) {
+                    for (int i = ns; i < ne; i++) { mx += x(i); my += y(i); }
+                    mx /= ne - ns;
+                    my /= ne - ns;
+                } else {
+                    mx = x(to - 1);
+                    my = y(to - 1);
+                }
+                double ax = x(a), ay = y(a), best = -1;
+                int pick = s;
+                for (int i = s; i < e; i++) {
+                    double area = Math.abs((ax - mx) * (y(i) - ay) - (ax - x(i)) * (my - ay));
+                    if (area > best) { best = area; pick = i; }
+                }
+                emit(pick);
+                a = pick;
+            }
+            emit(to - 1);
+        }
+
+        // points/2 buckets, each contributing its minimum and maximum in row order, so no spike is lost
+        void minMax(int from, int to, int points) {
+            int buckets = points / 2;
+            double every = (double) (to - from) / buckets;
+            for (int b = 0; b < buckets; b++) {
+                int s = from + (int) (b * every), e = b == buckets - 1 ? to : from + (int) ((b + 1) * every);
+                if (e <= s) continue;
+                int lo = s, hi = s;
+                for (int i = s + 1; i < e; i++) {
+                    double v = y(i);
+                    if (v < y(lo)) lo = i;
+                    if (v > y(hi)) hi = i;
+                }
+                emit(Math.min(lo, hi));
+                if (hi != lo) emit(Math.max(lo, hi));
+            }
+        }
+    }
+}
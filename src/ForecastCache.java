@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Model snapshots keyed by SHA-256 of the raw series plus every setting that affects the fit.
+// A hit skips ADF, lag selection and fitting; the caller only replays differencing/normalization and forecasts.
+// Memory is an LRU bounded by estimated entry size; an optional directory keeps <key>.snap files across processes.
+public class ForecastCache {
+
+    final long maxBytes;
+    final Path dir;
+    final LinkedHashMap<String, ModelSnapshot> lru = new LinkedHashMap<>(64, 0.75f, true);
+    long usedBytes;
+    long hits, diskHits, misses;
+
+    // dir may be null for a memory-only cache
+    public ForecastCache(long maxBytes, Path dir) throws IOException {
+        this.maxBytes = maxBytes;
+        this.dir = dir;
+        if (dir != null) Files.createDirectories(dir);
+    }
+
+    // hex SHA-256 over names, length, column values and settings; computed on the raw series, before any transform
+    public static String key(QoSSeries data) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        md.update(settings().getBytes(StandardCharsets.UTF_8));
+        for (int j = 0; j < data.width(); j++) md.update(data.name(j).getBytes(StandardCharsets.UTF_8));
+        ByteBuffer b = ByteBuffer.allocate(1 << 16);
+        b.putInt(data.width()).putInt(data.length());
+        for (int j = 0; j < data.width(); j++) {
+            double[] c = data.column(j);
+            for (int t = data.offset(); t < data.offset() + data.length(); t++) {
+                if (b.remaining() < 8) {
+                    md.update(b.array(), 0, b.position());
+                    b.clear();
+                }
+                b.putLong(Double.doubleToLongBits(c[t]));
+            }
+        }
+        md.update(b.array(), 0, b.position());
+        StringBuilder sb = new StringBuilder(64);
+        for (byte x : md.digest()) sb.append(Character.forDigit((x >> 4) & 15, 16)).append(Character.forDigit(x & 15, 16));
+        return sb.toString();
+    }
+
+    static String settings() {
+        return "P_MAX=" + VARPipelineFull.P_MAX + ";NORMALIZE=" + VARPipelineFull.NORMALIZE
+                + ";AUTO_ADF_DIFF=" + VARPipelineFull.AUTO_ADF_DIFF + ";SELECT_BY_AIC=" + VARPipelineFull.SELECT_BY_AIC
+                + ";TRAIN_FRACTION=" + VARPipelineFull.TRAIN_FRACTION + ";ADF_AUTO_LAG=" + VARPipelineFull.ADF_AUTO_LAG
+                + ";ADF_LAG=" + VARPipelineFull.ADF_LAG + ";ADF_MAX_LAG=" + VARPipelineFull.ADF_MAX_LAG
+                + ";ADF_MAX_DIFF=" + VARPipelineFull.ADF_MAX_DIFF + ";SOLVER=" + VARPipelineFull.SOLVER
+                + ";LOG_SHIFT=" + VARPipelineFull.LOG_SHIFT + ";TRANSFORMS=train";
+    }
+
+    // The snapshot read and checksum run outside the lock, so a cold disk hit does not stall memory hits on other
+    // threads; two threads missing the same key may both read the file, and the second insert simply replaces the first.
+    public ModelSnapshot get(String key) {
+        synchronized (this) {
+            ModelSnapshot e = lru.get(key);
+            if (e != null) {
+                hits++;
+                return e;
+            }
+            if (dir == null) {
+                misses++;
+                return null;
+            }
+        }
+        ModelSnapshot e;
+        try {
+            Path file = dir.resolve(key + ".snap");
+            e = Files.exists(file) ? ModelSnapshot.read(file) : null;
+            if (e != null && !e.settings.equals(settings())) e = null;
+        } catch (IOException ex) {
+            e = null;   // unreadable, corrupt or newer-version file: treat as a miss and let put() overwrite it
+        }
+        synchronized (this) {
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            diskHits++;
+            insert(key, e);
+            return e;
+        }
+    }
+
+    public synchronized void put(String key, ModelSnapshot e) {
+        insert(key, e);
+        if (dir == null) return;
+        try {
+            e.write(dir.resolve(key + ".snap"));
+        } catch (IOException ex) {
+            System.err.println("ForecastCache: could not persist " + key + ": " + ex);
+        }
+    }
+
+    void insert(String key, ModelSnapshot e) {
+        ModelSnapshot old = lru.put(key, e);
+        if (old != null) usedBytes -= old.bytes();
+        usedBytes += e.bytes();
+        for (Iterator<Map.Entry<String, ModelSnapshot>> it = lru.entrySet().iterator(); usedBytes > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, ModelSnapshot> eldest = it.next();
+            if (eldest.getValue() == e) continue;
+            usedBytes -= eldest.getValue().bytes();
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ForecastCache: %d entries, %.1f KB of %.1f KB, hits %d (disk %d), misses %d",
+                lru.size(), usedBytes / 1024.0, maxBytes / 1024.0, hits, diskHits, misses);
+    }
+}
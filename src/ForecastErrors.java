@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Forecast error sums per horizon and series, updated one prediction at a time: nothing but the sums is kept, so a
+// cell, a backtest fold or a thread can each fill its own and merge() them afterwards (merging is plain addition).
+// Metrics: MAE, RMSE, MAPE (rows with actual 0 skipped), sMAPE = 2|e|/(|a|+|p|) (rows with both 0 skipped),
+// MASE = mean of |e| / scale with scale the in-sample one-step naive MAE of the series (see naiveScale), and bias =
+// mean of actual - predicted. Since MASE is summed per row with each cell's own scale, merged cells stay comparable.
+public final class ForecastErrors {
+
+    // per-(horizon, series) slots in sums
+    static final int N = 0, ERR = 1, ABS = 2, SQ = 3, PCT = 4, N_PCT = 5, SPCT = 6, N_SPCT = 7, SCALED = 8, N_SCALED = 9;
+    static final int FIELDS = 10;
+
+    final String[] names;
+    final int horizons;
+    final double[] scale;   // per series, NaN or 0 when unknown
+    final double[] sums;
+    boolean folded;         // the last bucket also holds longer horizons
+
+    public ForecastErrors(String[] names, int horizons, double[] scale) {
+        if (horizons < 1) throw new IllegalArgumentException("horizons must be >= 1: " + horizons);
+        this.names = names.clone();
+        this.horizons = horizons;
+        this.scale = scale == null ? new double[names.length] : scale.clone();   // null: no MASE of its own, e.g. a merge target
+        this.sums = new double[horizons * names.length * FIELDS];
+    }
+
+    public int horizons() { return horizons; }
+    public String[] names() { return names.clone(); }
+
+    // mean |y_t - y_{t-1}| over the series, the denominator of MASE
+    public static double[] naiveScale(QoSSeries train) {
+        double[] s = new double[train.width()];
+        int T = train.length(), off = train.offset();
+        for (int j = 0; j < s.length; j++) {
+            double[] c = train.column(j);
+            double sum = 0;
+            for (int t = off + 1; t < off + T; t++) sum += Math.abs(c[t] - c[t - 1]);
+            s[j] = T > 1 ? sum / (T - 1) : Double.NaN;
+        }
+        return s;
+    }
+
+    // one prediction of series j at horizon h (0-based); horizons past the last fold into the last bucket
+    public void add(int h, int j, double actual, double pred) {
+        if (Double.isNaN(actual) || Double.isNaN(pred)) return;
+        if (h >= horizons) {
+            folded = true;
+            h = horizons - 1;
+        }
+        int b = (h * names.length + j) * FIELDS;
+        double e = actual - pred, ae = Math.abs(e);
+        sums[b + N]++;
+        sums[b + ERR] += e;
+        sums[b + ABS] += ae;
+        sums[b + SQ] += e * e;
+        if (actual != 0) {
+            sums[b + PCT] += ae / Math.abs(actual);
+            sums[b + N_PCT]++;
+        }
+        double d = Math.abs(actual) + Math.abs(pred);
+        if (d != 0) {
+            sums[b + SPCT] += 2 * ae / d;
+            sums[b + N_SPCT]++;
+        }
+        if (scale[j] > 0) {
+            sums[b + SCALED] += ae / scale[j];
+            sums[b + N_SCALED]++;
+        }
+    }
+
+    // all series at horizon h: actual[aOff + j] against pred[pOff + j]
+    public void add(int h, double[] actual, int aOff, double[] pred, int pOff) {
+        for (int j = 0; j < names.length; j++) add(h, j, actual[aOff + j], pred[pOff + j]);
+    }
+
+    // row t of pred is the forecast t + 1 steps ahead of one origin
+    public void addPath(QoSSeries actual, QoSSeries pred) {
+        int n = Math.min(actual.length(), pred.length());
+        for (int j = 0; j < names.length; j++) {
+            double[] a = actual.column(j), p = pred.column(j);
+            int ao = actual.offset(), po = pred.offset();
+            for (int t = 0; t < n; t++) add(t, j, a[ao + t], p[po + t]);
+        }
+    }
+
+    // adds other's sums into this one; series and horizons must match
+    public ForecastErrors merge(ForecastErrors other) {
+        if (other.horizons != horizons || !Arrays.equals(other.names, names))
+            throw new IllegalArgumentException("cannot merge errors over " + Arrays.toString(other.names) + " x " + other.horizons
+                    + " into " + Arrays.toString(names) + " x " + horizons);
+        for (int i = 0; i < sums.length; i++) sums[i] += other.sums[i];
+        folded |= other.folded;
+        return this;
+    }
+
+    // metric values for series j at horizon h, or over all horizons when h < 0:
+    // {count, MAE, RMSE, MAPE %, sMAPE %, MASE, bias}
+    public double[] metrics(int h, int j) {
+        double[] s = new double[FIELDS];
+        for (int k = h < 0 ? 0 : h; k < (h < 0 ? horizons : h + 1); k++) {
+            int b = (k * names.length + j) * FIELDS;
+            for (int f = 0; f < FIELDS; f++) s[f] += sums[b + f];
+        }
+        double n = s[N];
+        return new double[]{n, s[ABS] / n, Math.sqrt(s[SQ] / n), ratio(s[PCT], s[N_PCT]) * 100, ratio(s[SPCT], s[N_SPCT]) * 100,
+                ratio(s[SCALED], s[N_SCALED]), s[ERR] / n};
+    }
+
+    static double ratio(double sum, double n) { return n > 0 ? sum / n : Double.NaN; }
+
+    // one line per series over all horizons
+    public void print(PrintStream out) {
+        for (int j = 0; j < names.length; j++) {
+            double[] m = metrics(-1, j);
+            out.printf(Locale.ROOT, "%s -> MAE: %.6f, RMSE: %.6f, MAPE: %.3f%%, sMAPE: %.3f%%, MASE: %.4f, Bias: %.6f (n=%d)%n",
+                    names[j], m[1], m[2], m[3], m[4], m[5], m[6], (long) m[0]);
+        }
+    }
+
+    // CSV (Horizon,Series,Count,MAE,RMSE,MAPE,sMAPE,MASE,Bias; Horizon "all" closes each series, "H+" marks a last
+    // bucket holding longer horizons too) or JSON when the file name ends in .json; empty horizons are left out
+    public void write(Path file) throws IOException {
+        boolean json = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (json) w.write("{\"horizons\":" + horizons + ",\"series\":[");
+            else w.write("Horizon,Series,Count,MAE,RMSE,MAPE,sMAPE,MASE,Bias\n");
+            for (int j = 0; j < names.length; j++) {
+                if (json) w.write((j > 0 ? "," : "") + "\n  {\"name\":\"" + names[j].replace("\"", "\\\"") + "\",\"all\":"
+                        + json(metrics(-1, j)) + ",\"by_horizon\":[");
+                boolean first = true;
+                for (int h = 0; h < horizons; h++) {
+                    double[] m = metrics(h, j);
+                    if (m[0] == 0) continue;
+                    if (json) w.write((first ? "" : ",") + "\n    " + json(m).replace("{", "{\"horizon\":\"" + label(h) + "\","));
+                    else w.write(csv(label(h), names[j], m));
+                    first = false;
+                }
+                if (json) w.write("]}");
+                else w.write(csv("all", names[j], metrics(-1, j)));
+            }
+            if (json) w.write("\n]}\n");
+        }
+    }
+
+    String label(int h) { return folded && h == horizons - 1 ? (h + 1) + "+" : Integer.toString(h + 1); }
+
+    static String csv(String h, String name, double[] m) {
+        return String.format(Locale.ROOT, "%s,%s,%d,%.6f,%.6f,%.4f,%.4f,%.6f,%.6f\n", h, name, (long) m[0], m[1], m[2], m[3], m[4], m[5], m[6]);
+    }
+
+    static String json(double[] m) {
+        return String.format(Locale.ROOT, "{\"count\":%d,\"mae\":%s,\"rmse\":%s,\"mape\":%s,\"smape\":%s,\"mase\":%s,\"bias\":%s}",
+                (long) m[0], num(m[1]), num(m[2]), num(m[3]), num(m[4]), num(m[5]), num(m[6]));
+    }
+
+    static String num(double v) { return Double.isNaN(v) || Double.isInfinite(v) ? "null" : Double.toString(v); }
+}
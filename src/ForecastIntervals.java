@@ -0,0 +1,203 @@
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+// Uncertainty of recursive VAR(p) forecasts, for coefficients in ForecastKernel layout.
+// Analytic: the h-step forecast error is sum_{i<h} Phi_i u_{T+h-i}, with Phi_i the VMA coefficients of the companion
+// form (Phi_0 = I, Phi_i = sum_{l=1..min(i,p)} Phi_{i-l} A_l), so MSE(h) = sum_{i<h} Phi_i Sigma Phi_i' and normal
+// quantiles follow from its diagonal. Bootstrap: paths driven by whole residual rows drawn with replacement, which
+// keeps the cross-correlation and the shape of the residuals; quantiles are read off the simulated paths.
+public final class ForecastIntervals {
+
+    static final double PHI_EPS = 1e-12;   // once every Phi_i entry is below this the MSE has converged
+    static final int CHUNK = 64;           // bootstrap paths per RNG stream and per parallel task
+    static final int BLOCK_VALUES = 1 << 22;   // simulated values held at once: paths x n x steps per block
+    public static final long SEED = 42L;
+
+    private ForecastIntervals() { }
+
+    // Phi_0 .. Phi_{h-1} (n x n each); after convergence the remaining ones are one shared zero matrix
+    public static double[][][] vma(double[] coef, int n, int p, int h) {
+        int K = 1 + n * p;
+        double[][][] phi = new double[h][][];
+        phi[0] = identity(n);
+        double[][] zero = new double[n][n];
+        int small = 0;   // consecutive negligible Phi_i; p of them make every later one negligible too
+        for (int i = 1; i < h; i++) {
+            if (small >= p) {
+                phi[i] = zero;
+                continue;
+            }
+            double[][] P = phi[i] = new double[n][n];
+            double max = 0;
+            for (int l = 1; l <= Math.min(i, p); l++) {
+                double[][] prev = phi[i - l];
+                // (Phi_{i-l} A_l)[r][c] = sum_m Phi_{i-l}[r][m] * B[1 + (l-1)n + c][m]
+                for (int m = 0; m < n; m++) {
+                    int a = m * K + 1 + (l - 1) * n;
+                    for (int r = 0; r < n; r++) {
+                        double v = prev[r][m];
+                        if (v == 0) continue;
+                        double[] Pr = P[r];
+                        for (int c = 0; c < n; c++) Pr[c] += v * coef[a + c];
+                    }
+                }
+            }
+            for (double[] row : P) for (double v : row) max = Math.max(max, Math.abs(v));
+            small = max < PHI_EPS ? small + 1 : 0;
+        }
+        return phi;
+    }
+
+    // MSE(1) .. MSE(h): cumulative sums of Phi_i Sigma Phi_i'; steps past convergence share one matrix
+    public static double[][][] mse(double[][][] phi, double[][] sigma) {
+        int h = phi.length, n = sigma.length;
+        double[][][] out = new double[h][][];
+        double[][] acc = new double[n][n], tmp = new double[n][n];
+        for (int i = 0; i < h; i++) {
+            double[][] P = phi[i];
+            if (i > 0 && (P == phi[i - 1] || isZero(P))) {
+                out[i] = out[i - 1];
+                continue;
+            }
+            for (int r = 0; r < n; r++)
+                for (int c = 0; c < n; c++) {
+                    double s = 0;
+                    for (int m = 0; m < n; m++) s += P[r][m] * sigma[m][c];
+                    tmp[r][c] = s;
+                }
+            for (int r = 0; r < n; r++)
+                for (int c = 0; c <= r; c++) {
+                    double s = 0;
+                    for (int m = 0; m < n; m++) s += tmp[r][m] * P[c][m];
+                    acc[r][c] += s;
+                    if (c != r) acc[c][r] += s;
+                }
+            out[i] = new double[n][];
+            for (int r = 0; r < n; r++) out[i][r] = acc[r].clone();
+        }
+        return out;
+    }
+
+    // point +- z_q sqrt(MSE(h)_jj), one series per quantile, same shape as point
+    public static QoSSeries[] analytic(QoSSeries point, double[][][] mse, double[] quantiles) {
+        NormalDistribution z = new NormalDistribution();
+        QoSSeries[] bands = new QoSSeries[quantiles.length];
+        int n = point.width();
+        for (int b = 0; b < quantiles.length; b++) {
+            double zq = z.inverseCumulativeProbability(quantiles[b]);
+            QoSSeries s = bands[b] = QoSSeries.allocate(point.names(), point.length());
+            for (int j = 0; j < n; j++) {
+                double[] out = s.column(j);
+                for (int t = 0; t < point.length(); t++)
+                    out[s.offset() + t] = point.get(t, j) + zq * Math.sqrt(Math.max(mse[t][j][j], 0.0));
+            }
+        }
+        return bands;
+    }
+
+    // Same on the input scale of t, for a point forecast on its output scale. The linear stages at the end of t
+    // (z-score, differencing) are inverted exactly: the point goes through them and the VMA coefficients with it, so
+    // MSE(h) is that of the level forecast. Stages before those (log) must invert pointwise; bands map through them.
+    public static QoSSeries[] analytic(QoSSeries point, double[][][] phi, double[][] sigma, double[] quantiles, SeriesTransform t) {
+        SeriesTransform[] st = t.stages();
+        QoSSeries pt = point.copy();
+        int k = st.length;
+        for (; k > 0 && st[k - 1].linear(); k--) {
+            st[k - 1].copy().invert(pt);
+            phi = st[k - 1].impulse(phi);
+        }
+        QoSSeries[] bands = analytic(pt, mse(phi, sigma), quantiles);
+        for (; k > 0; k--) {
+            if (!st[k - 1].pointwise()) throw new IllegalArgumentException(st[k - 1] + " cannot come before a non-linear transform in a banded forecast");
+            for (QoSSeries b : bands) st[k - 1].copy().invert(b);
+        }
+        return bands;
+    }
+
+    // Quantiles over `paths` simulated continuations of history (the last p rows are the start), each step the kernel
+    // forecast plus a residual row drawn uniformly from resid (n x L, one column per residual row, demeaned here).
+    // Paths are advanced together in blocks of steps; every chunk of CHUNK paths owns its kernels and an RNG split
+    // off SEED in chunk order, so the result does not depend on the number of threads. With a transform (positioned
+    // after history) each path is inverted step by step through its own copy, so bands come out on its input scale.
+    public static QoSSeries[] bootstrap(double[] coef, int p, QoSSeries history, double[][] resid, int steps, int paths,
+                                        double[] quantiles) {
+        return bootstrap(coef, p, history, resid, steps, paths, quantiles, null);
+    }
+
+    public static QoSSeries[] bootstrap(double[] coef, int p, QoSSeries history, double[][] resid, int steps, int paths,
+                                        double[] quantiles, SeriesTransform transform) {
+        int n = history.width(), L = resid[0].length;
+        double[] shocks = new double[L * n];   // row r at [r*n, r*n + n)
+        for (int j = 0; j < n; j++) {
+            double mean = 0;
+            for (double v : resid[j]) mean += v;
+            mean /= L;
+            for (int r = 0; r < L; r++) shocks[r * n + j] = resid[j][r] - mean;
+        }
+
+        int chunks = (paths + CHUNK - 1) / CHUNK;
+        SplittableRandom root = new SplittableRandom(SEED);
+        SplittableRandom[] rng = new SplittableRandom[chunks];
+        ForecastKernel[] kernels = new ForecastKernel[paths];
+        SeriesTransform[] inverse = transform == null ? null : new SeriesTransform[paths];
+        for (int c = 0; c < chunks; c++) rng[c] = root.split();
+        for (int s = 0; s < paths; s++) {
+            kernels[s] = new ForecastKernel(n, p, coef);
+            kernels[s].reset(history, history.length());
+            if (inverse != null) inverse[s] = transform.copy();
+        }
+
+        QoSSeries[] bands = new QoSSeries[quantiles.length];
+        for (int b = 0; b < bands.length; b++) bands[b] = QoSSeries.allocate(history.names(), steps);
+        int block = Math.max(1, Math.min(steps, BLOCK_VALUES / (paths * n)));
+        double[] sim = new double[block * n * paths];   // step t, variable j, path s at (t*n + j)*paths + s
+        double[][] scratch = new double[chunks][n];
+        for (int from0 = 0; from0 < steps; from0 += block) {
+            int t0 = from0, len = Math.min(block, steps - t0);
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                SplittableRandom r = rng[c];
+                double[] y = scratch[c];
+                for (int s = c * CHUNK, end = Math.min(paths, s + CHUNK); s < end; s++) {
+                    ForecastKernel k = kernels[s];
+                    for (int t = 0; t < len; t++) {
+                        k.step(y, 0, shocks, r.nextInt(L) * n);
+                        if (inverse != null) inverse[s].invert(y, 0);
+                        for (int j = 0; j < n; j++) sim[(t * n + j) * paths + s] = y[j];
+                    }
+                }
+            });
+            IntStream.range(0, len * n).parallel().forEach(cell -> {
+                int from = cell * paths;
+                Arrays.sort(sim, from, from + paths);
+                int t = t0 + cell / n, j = cell % n;
+                for (int b = 0; b < quantiles.length; b++) {
+                    double h = (paths - 1) * quantiles[b];
+                    int lo = (int) Math.floor(h), hi = Math.min(lo + 1, paths - 1);
+                    double v = sim[from + lo] + (h - lo) * (sim[from + hi] - sim[from + lo]);
+                    bands[b].column(j)[bands[b].offset() + t] = v;
+                }
+            });
+        }
+        return bands;
+    }
+
+    // column suffix for a quantile, e.g. 0.025 -> "q2.5", 0.9 -> "q90"
+    public static String label(double q) {
+        return "q" + BigDecimal.valueOf(q).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+
+    static double[][] identity(int n) {
+        double[][] I = new double[n][n];
+        for (int i = 0; i < n; i++) I[i][i] = 1.0;
+        return I;
+    }
+
+    static boolean isZero(double[][] m) {
+        for (double[] row : m) for (double v : row) if (v != 0) return false;
+        return true;
+    }
+}
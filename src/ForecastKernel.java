@@ -0,0 +1,191 @@
+import org.apache.commons.math3.linear.RealMatrix;
+
+// Recursive VAR(p) forecaster over a primitive ring of the last p observations.
+// After construction nothing is allocated per step. Mostly-zero coefficients (lasso fits) are kept as per-equation
+// lists of the non-zero slopes, so a step costs the non-zeros rather than n*n*p.
+public class ForecastKernel {
+
+    static final double SPARSE_FILL = 0.25;   // densest share of non-zero slopes stepped through the lists
+
+    final int n, p, K;
+    final double[] coef;   // coef[j*K + k] = B[k][j]: one contiguous row per equation
+    final double[] ring;   // p slots of n values, newest at slot head
+    int head;
+    // sparse slopes, null when dense: equation j owns [end[j-1], end[j]) of lag (0-based) / variable / value
+    final int[] end, lagOf, varOf;
+    final double[] val;
+    final int[] lagBase;
+
+    public ForecastKernel(int n, int p, double[] coef) {
+        this.n = n;
+        this.p = p;
+        this.K = 1 + n * p;
+        this.coef = coef;
+        this.ring = new double[p * n];
+        int nz = 0;
+        for (int j = 0; j < n; j++) for (int k = 1; k < K; k++) if (coef[j * K + k] != 0) nz++;
+        if (nz > SPARSE_FILL * n * (K - 1)) {
+            end = lagOf = varOf = lagBase = null;
+            val = null;
+            return;
+        }
+        end = new int[n];
+        lagOf = new int[nz];
+        varOf = new int[nz];
+        val = new double[nz];
+        lagBase = new int[p];
+        for (int j = 0, e = 0; j < n; j++) {
+            for (int k = 1; k < K; k++) {
+                double c = coef[j * K + k];
+                if (c == 0) continue;
+                lagOf[e] = (k - 1) / n;
+                varOf[e] = (k - 1) % n;
+                val[e++] = c;
+            }
+            end[j] = e;
+        }
+    }
+
+    public boolean isSparse() { return val != null; }
+
+    public static double[] layout(RealMatrix B, int n, int p) {
+        int K = 1 + n * p;
+        double[] c = new double[n * K];
+        for (int j = 0; j < n; j++)
+            for (int k = 0; k < K; k++) c[j * K + k] = B.getEntry(k, j);
+        return c;
+    }
+
+    // loads rows [t - p, t) of data as the lag window
+    public void reset(QoSSeries data, int t) {
+        if (t < p) throw new IllegalArgumentException("need " + p + " observations before row " + t);
+        for (int lag = p; lag >= 1; lag--) {
+            head = (head + 1) % p;
+            int base = head * n;
+            for (int j = 0; j < n; j++) ring[base + j] = data.get(t - lag, j);
+        }
+    }
+
+    public void push(double[] y, int off) {
+        head = (head + 1) % p;
+        System.arraycopy(y, off, ring, head * n, n);
+    }
+
+    // writes the next one-step forecast to out[off..off+n) and feeds it back as the newest observation
+    public void step(double[] out, int off) {
+        next(out, off);
+        push(out, off);
+    }
+
+    // same with shock[shockOff..shockOff+n) added before feeding back: one step of a simulated path
+    public void step(double[] out, int off, double[] shock, int shockOff) {
+        next(out, off);
+        for (int j = 0; j < n; j++) out[off + j] += shock[shockOff + j];
+        push(out, off);
+    }
+
+    void next(double[] out, int off) {
+        if (val != null) {
+            for (int lag = 0, slot = head; lag < p; lag++, slot = slot == 0 ? p - 1 : slot - 1) lagBase[lag] = slot * n;
+            for (int j = 0, e = 0; j < n; j++) {
+                double s = coef[j * K];
+                for (; e < end[j]; e++) s += val[e] * ring[lagBase[lagOf[e]] + varOf[e]];
+                out[off + j] = s;
+            }
+            return;
+        }
+        for (int j = 0; j < n; j++) {
+            int c = j * K;
+            double s = coef[c++];
+            int slot = head;
+            for (int lag = 0; lag < p; lag++) {
+                int base = slot * n;
+                for (int i = 0; i < n; i++) s += coef[c++] * ring[base + i];
+                slot = slot == 0 ? p - 1 : slot - 1;
+            }
+            out[off + j] = s;
+        }
+    }
+
+    // writes steps forecasts into rows [0, steps) of out, which must have n columns
+    public void forecast(int steps, QoSSeries out, double[] scratch) {
+        int off = out.offset();
+        for (int t = 0; t < steps; t++) {
+            step(scratch, 0);
+            for (int j = 0; j < n; j++) out.column(j)[off + t] = scratch[j];
+        }
+    }
+
+    // one-step prediction for row t from the observed rows t-p..t-1, leaving the ring untouched
+    public void predictAt(QoSSeries data, int t, double[] out) {
+        double[][] cols = data.cols;
+        int o = data.offset() + t;
+        if (val != null) {
+            for (int j = 0, e = 0; j < n; j++) {
+                double s = coef[j * K];
+                for (; e < end[j]; e++) s += val[e] * cols[varOf[e]][o - 1 - lagOf[e]];
+                out[j] = s;
+            }
+            return;
+        }
+        for (int j = 0; j < n; j++) {
+            int c = j * K;
+            double s = coef[c++];
+            for (int lag = 1; lag <= p; lag++)
+                for (int i = 0; i < n; i++) s += coef[c++] * cols[i][o - lag];
+            out[j] = s;
+        }
+    }
+
+    // Recursive forecasts for many models of one shape (n, p) in a single pass. Coefficients and lag histories are
+    // packed into two flat arrays with the lags stored oldest first, so every equation is one contiguous dot product
+    // over the n*p values preceding the row being written; forecasts are appended to the same history.
+    public static final class Batch {
+        final int n, p, K, steps, H;
+        final double[] coef;   // model c, equation j: coef[(c*n + j)*K + k], intercept first, then lag p .. lag 1
+        final double[] hist;   // model c: p + steps rows of n, origin window first
+        int models;
+
+        public Batch(int n, int p, int capacity, int steps) {
+            this.n = n;
+            this.p = p;
+            this.K = 1 + n * p;
+            this.steps = steps;
+            this.H = (p + steps) * n;
+            this.coef = new double[capacity * n * K];
+            this.hist = new double[capacity * H];
+        }
+
+        // c in ForecastKernel layout (lag 1 first); window[off..off + n*p) is the last p observations, oldest first
+        public int add(double[] c, double[] window, int off) {
+            int m = models++, base = m * n * K;
+            for (int j = 0; j < n; j++) {
+                int src = j * K, dst = base + j * K;
+                coef[dst] = c[src];
+                for (int lag = 1; lag <= p; lag++)
+                    System.arraycopy(c, src + 1 + (lag - 1) * n, coef, dst + 1 + (p - lag) * n, n);
+            }
+            System.arraycopy(window, off, hist, m * H, n * p);
+            return m;
+        }
+
+        public void run() {
+            int np = n * p;
+            for (int t = 0; t < steps; t++) {
+                for (int m = 0; m < models; m++) {
+                    int h = m * H + t * n, out = h + np, c = m * n * K;
+                    for (int j = 0; j < n; j++, c += K) {
+                        double s = coef[c];
+                        for (int k = 0; k < np; k++) s += coef[c + 1 + k] * hist[h + k];
+                        hist[out + j] = s;
+                    }
+                }
+            }
+        }
+
+        // forecast of variable j at step t (0-based) for the model added as m
+        public double get(int m, int t, int j) {
+            return hist[m * H + (p + t) * n + j];
+        }
+    }
+}
@@ -0,0 +1,324 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Long-running forecast service on the JDK's HttpServer. Fitted models (ModelSnapshot) stay in memory per cell.
+// Forecast requests arriving within one micro-window are grouped by model shape and run as one ForecastKernel.Batch.
+//   POST /fit?cell=ID[&columns=..]  body: CSV as VARPipelineFull reads it; fits, keeps and (with a model dir) saves <ID>.snap
+//   POST /forecast?cell=ID&steps=H  body: optional recent raw rows with a header naming the model's columns; empty continues the stored tail
+//   GET  /stats                     request/batch counts and forecast / fit latency percentiles as JSON
+//   GET  /metrics                   PipelineMetrics stage totals (fits and forecast batches) in Prometheus text format
+public class ForecastServer {
+
+    static final int MAX_BATCH = 512;
+    static final int MAX_STEPS = 100000;
+    static final long MAX_BATCH_VALUES = 1 << 23;    // doubles in one packed pass (64 MB); larger groups are split
+    static final int LATENCY_SAMPLES = 1 << 16;     // most recent requests kept for the percentiles
+    static final long TIMEOUT_MS = 10000;
+
+    final Map<String, ModelSnapshot> cells = new ConcurrentHashMap<>();
+    final Path modelDir;
+    final long windowNanos;
+    final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    final Latency latency = new Latency(LATENCY_SAMPLES);      // /forecast only
+    final Latency fitLatency = new Latency(LATENCY_SAMPLES);   // /fit only
+    final AtomicLong forecasts = new AtomicLong(), batches = new AtomicLong(), fits = new AtomicLong(), errors = new AtomicLong();
+    HttpServer http;
+    Thread dispatcher;
+    volatile boolean running;
+
+    static final class Job {
+        final ModelSnapshot model;
+        final double[] window;
+        final int steps;
+        final SeriesTransform inverse;   // positioned at the origin, maps the forecast back to the original scale
+        final CompletableFuture<QoSSeries> result = new CompletableFuture<>();
+
+        Job(ModelSnapshot model, double[] window, int steps, SeriesTransform inverse) {
+            this.model = model;
+            this.window = window;
+            this.steps = steps;
+            this.inverse = inverse;
+        }
+    }
+
+    public ForecastServer(Path modelDir, long windowMicros) {
+        this.modelDir = modelDir;
+        this.windowNanos = windowMicros * 1000;
+    }
+
+    // every <cell>.snap in the model directory
+    public int loadModels() throws IOException {
+        if (modelDir == null) return 0;
+        File[] files = modelDir.toFile().listFiles((d, name) -> name.endsWith(".snap"));
+        if (files == null) return 0;
+        for (File f : files) cells.put(VARBatch.cellId(f.toPath()), ModelSnapshot.read(f.toPath()));
+        return files.length;
+    }
+
+    public void start(int port, int threads) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/forecast", ex -> handle(ex, this::forecast, latency));
+        http.createContext("/fit", ex -> handle(ex, this::fit, fitLatency));
+        http.createContext("/stats", ex -> handle(ex, e -> reply(e, 200, "application/json", stats()), null));
+        http.createContext("/metrics", ex -> handle(ex, e -> reply(e, 200, "text/plain; version=0.0.4",
+                PipelineMetrics.Prometheus.format(PipelineMetrics.GLOBAL.snapshot())), null));
+        // handlers block until their batch is done, so the pool bounds the number of requests in flight
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        http.setExecutor(pool);
+        running = true;
+        dispatcher = new Thread(this::dispatch, "forecast-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        http.start();
+    }
+
+    public void stop() {
+        running = false;
+        http.stop(0);
+        dispatcher.interrupt();
+        ((ExecutorService) http.getExecutor()).shutdown();
+    }
+
+    interface Handler {
+        void handle(HttpExchange ex) throws Exception;
+    }
+
+    // times the request into `timed` when given, so fits and scrapes stay out of the forecast percentiles
+    void handle(HttpExchange ex, Handler h, Latency timed) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            h.handle(ex);
+        } catch (IllegalArgumentException e) {
+            errors.incrementAndGet();
+            reply(ex, 400, "text/plain", e.getMessage() + "\n");
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            reply(ex, 500, "text/plain", e + "\n");
+        } finally {
+            ex.close();
+            if (timed != null) timed.record(System.nanoTime() - t0);
+        }
+    }
+
+    void forecast(HttpExchange ex) throws Exception {
+        Map<String, String> q = query(ex);
+        String cell = q.get("cell");
+        ModelSnapshot s = cell == null ? null : cells.get(cell);
+        if (s == null) {
+            reply(ex, 404, "text/plain", "unknown cell: " + cell + "\n");
+            return;
+        }
+        int steps = Integer.parseInt(q.getOrDefault("steps", "1"));
+        if (steps < 1 || steps > MAX_STEPS) throw new IllegalArgumentException("steps must be in 1.." + MAX_STEPS);
+        if ((long) (s.p + steps) * s.width() > MAX_BATCH_VALUES)
+            throw new IllegalArgumentException("steps x columns must stay within " + MAX_BATCH_VALUES + " values");
+        byte[] body = readAll(ex.getRequestBody());
+        QoSSeries recent = body.length == 0 ? null : QoSCsvReader.parse(body, body.length, String.join(",", s.names), false);
+        SeriesTransform t = s.transform(recent);
+        Job job = new Job(s, s.window(s.origin(recent, t)), steps, t);
+        queue.put(job);
+        QoSSeries preds;
+        try {
+            preds = job.result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            throw new IOException("forecast not done within " + TIMEOUT_MS + " ms");
+        }
+        StringWriter w = new StringWriter(32 + steps * s.width() * 12);
+        ModelSnapshot.writeCsv(w, preds);
+        forecasts.incrementAndGet();
+        reply(ex, 200, "text/csv", w.toString());
+    }
+
+    void fit(HttpExchange ex) throws Exception {
+        Map<String, String> q = query(ex);
+        String cell = q.get("cell");
+        if (cell == null || !cell.matches("[A-Za-z0-9_.-]+")) throw new IllegalArgumentException("cell must match [A-Za-z0-9_.-]+");
+        byte[] body = readAll(ex.getRequestBody());
+        QoSSeries data = QoSCsvReader.parse(body, body.length, q.get("columns"), true);
+        long t0 = System.nanoTime();
+        VARPipelineFull.Forecast f = VARPipelineFull.run(data, VARBatch.SILENT);
+        cells.put(cell, f.snapshot);
+        if (modelDir != null) f.snapshot.write(modelDir.resolve(cell + ".snap"));
+        fits.incrementAndGet();
+        reply(ex, 200, "application/json", String.format(Locale.ROOT, "{\"cell\":\"%s\",\"rows\":%d,\"p\":%d,\"ic\":%.6f,\"fit_ms\":%.3f}%n",
+                cell, data.length(), f.model.p, f.ic, (System.nanoTime() - t0) / 1e6));
+    }
+
+    // Takes the first waiting job, collects whatever else arrives within the window, runs the lot, repeats.
+    void dispatch() {
+        List<Job> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < MAX_BATCH) {
+                    long left = deadline - System.nanoTime();
+                    Job j = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (j == null) break;
+                    batch.add(j);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("serve_batch")) {
+                s.rows(batch.size());
+                run(batch);
+            } catch (Throwable e) {   // the dispatcher must outlive any batch; waiting handlers get the error
+                for (Job j : batch) j.result.completeExceptionally(e);
+            }
+            batches.incrementAndGet();
+            batch.clear();
+        }
+    }
+
+    // One packed pass per (n, p) group, each long enough for its longest request. Groups are sorted longest horizon
+    // first and split so a pass stays within MAX_BATCH_VALUES doubles; one long request then no longer sizes the
+    // history of every short one.
+    static void run(List<Job> batch) {
+        Map<Long, List<Job>> groups = new LinkedHashMap<>();
+        for (Job j : batch) groups.computeIfAbsent(((long) j.model.width() << 32) | j.model.p, k -> new ArrayList<>()).add(j);
+        for (List<Job> g : groups.values()) {
+            g.sort((a, b) -> Integer.compare(b.steps, a.steps));
+            for (int from = 0; from < g.size(); ) {
+                ModelSnapshot first = g.get(from).model;
+                int n = first.width(), p = first.p, steps = g.get(from).steps;
+                long perJob = (long) (p + steps) * n + (long) n * (1 + n * p);
+                int to = from + (int) Math.max(1, Math.min(g.size() - from, MAX_BATCH_VALUES / perJob));
+                run(g.subList(from, to), n, p, steps);
+                from = to;
+            }
+        }
+    }
+
+    // a failure of any kind (an OutOfMemoryError included) fails only this pass's requests
+    static void run(List<Job> g, int n, int p, int steps) {
+        try {
+            ForecastKernel.Batch k = new ForecastKernel.Batch(n, p, g.size(), steps);
+            for (Job j : g) k.add(j.model.coef(), j.window, 0);
+            k.run();
+            for (int m = 0; m < g.size(); m++) {
+                Job j = g.get(m);
+                QoSSeries preds = QoSSeries.allocate(j.model.names, j.steps);
+                for (int t = 0; t < j.steps; t++)
+                    for (int v = 0; v < n; v++) preds.set(t, v, k.get(m, t, v));
+                j.inverse.invert(preds);
+                j.result.complete(preds);
+            }
+        } catch (Throwable e) {
+            for (Job j : g) j.result.completeExceptionally(e);
+        }
+    }
+
+    String stats() {
+        long[] pct = latency.percentiles(50, 99, 100), fit = fitLatency.percentiles(50, 99, 100);
+        long b = batches.get(), f = forecasts.get();
+        return String.format(Locale.ROOT, "{\"cells\":%d,\"forecasts\":%d,\"fits\":%d,\"errors\":%d,\"batches\":%d,"
+                        + "\"mean_batch\":%.2f,\"p50_ms\":%.3f,\"p99_ms\":%.3f,\"max_ms\":%.3f,"
+                        + "\"fit_p50_ms\":%.3f,\"fit_p99_ms\":%.3f,\"fit_max_ms\":%.3f}%n",
+                cells.size(), f, fits.get(), errors.get(), b, b == 0 ? 0.0 : (double) f / b,
+                pct[0] / 1e6, pct[1] / 1e6, pct[2] / 1e6, fit[0] / 1e6, fit[1] / 1e6, fit[2] / 1e6);
+    }
+
+    // ring of the most recent request latencies; percentiles sort a copy
+    static final class Latency {
+        final long[] samples;
+        long count;
+
+        Latency(int size) { samples = new long[size]; }
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % samples.length)] = nanos;
+        }
+
+        long[] percentiles(double... ps) {
+            long[] s;
+            synchronized (this) {
+                s = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            }
+            Arrays.sort(s);
+            long[] out = new long[ps.length];
+            for (int i = 0; i < ps.length && s.length > 0; i++) {
+                int rank = (int) Math.ceil(ps[i] / 100.0 * s.length);   // nearest-rank
+                out[i] = s[Math.max(0, Math.min(s.length, rank) - 1)];
+            }
+            return out;
+        }
+    }
+
+    static Map<String, String> query(HttpExchange ex) throws IOException {
+        Map<String, String> q = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return q;
+        for (String kv : raw.split("&")) {
+            int eq = kv.indexOf('=');
+            if (eq > 0) q.put(URLDecoder.decode(kv.substring(0, eq), "UTF-8"), URLDecoder.decode(kv.substring(eq + 1), "UTF-8"));
+        }
+        return q;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buf = new byte[8192];
+        for (int r; (r = in.read(buf)) > 0; ) out.write(buf, 0, r);
+        return out.toByteArray();
+    }
+
+    static void reply(HttpExchange ex, int status, String type, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(b);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java ForecastServer <port> [model_dir|-] [threads] [window_us]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        Path dir = args.length > 1 && !args[1].equals("-") ? Paths.get(args[1]) : null;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long window = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+        if (dir != null) Files.createDirectories(dir);
+
+        ForecastServer server = new ForecastServer(dir, window);
+        System.out.println("Loaded " + server.loadModels() + " model(s)" + (dir != null ? " from " + dir : ""));
+        server.start(port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print("Stats: " + server.stats())));
+        System.out.printf("Listening on :%d (%d handler threads, %d us batching window)%n", port, threads, window);
+    }
+}
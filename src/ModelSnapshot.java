@@ -0,0 +1,227 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+// Everything needed to forecast without refitting: coefficients, lag order, the transforms applied before the fit
+// (parameters and stream position at the last row, see SeriesTransform), and the last p transformed observations as
+// the default forecast origin. Forecasts come back on the original scale.
+// File: "VARS" | version i32 | payload length i32 | payload | CRC32 of payload (i64), big-endian (DataOutput).
+// Version 1 held differencing orders and a z-score instead of the transform; its forecasts stay differenced.
+public class ModelSnapshot {
+
+    static final int MAGIC = 0x56415253;   // "VARS"
+    static final int VERSION = 2;
+
+    final String[] names;
+    final int p;
+    final double ic;
+    final double[][] B;          // (1+n*p) x n, intercept row first
+    final SeriesTransform transform;
+    final double[][] tail;       // last p rows of the transformed series, oldest first
+    final String settings;
+    double[] coef;               // ForecastKernel layout of B, built on first use
+
+    public ModelSnapshot(String[] names, int p, double ic, double[][] B, SeriesTransform transform, double[][] tail,
+                         String settings) {
+        this.names = names;
+        this.p = p;
+        this.ic = ic;
+        this.B = B;
+        this.transform = transform;
+        this.tail = tail;
+        this.settings = settings;
+    }
+
+    // state of a finished fit: train and test transformed, f.transform positioned after the last test row
+    static ModelSnapshot of(VARPipelineFull.Forecast f, QoSSeries train, QoSSeries test) {
+        int n = train.width(), p = f.model.p, T = train.length() + test.length();
+        double[][] tail = new double[Math.min(p, T)][n];
+        for (int r = 0; r < tail.length; r++) {
+            int t = T - tail.length + r;
+            for (int j = 0; j < n; j++) tail[r][j] = t < train.length() ? train.get(t, j) : test.get(t - train.length(), j);
+        }
+        return new ModelSnapshot(train.names(), p, f.ic, f.model.B.getData(), f.transform.copy(), tail, ForecastCache.settings());
+    }
+
+    public int width() { return names.length; }
+
+    public VARPipelineFull.VARModel model() {
+        VARPipelineFull.VARModel m = new VARPipelineFull.VARModel(names.length, p);
+        m.set(B);
+        return m;
+    }
+
+    double[] coef() {
+        if (coef == null) coef = ForecastKernel.layout(new org.apache.commons.math3.linear.Array2DRowRealMatrix(B, false), names.length, p);
+        return coef;
+    }
+
+    long bytes() {
+        return 256 + 8L * (B.length + tail.length) * (names.length + 2) + 56L * names.length;
+    }
+
+    // forecast following the embedded tail, on the original scale
+    public QoSSeries forecast(int steps) {
+        return forecast(null, steps);
+    }
+
+    // forecast following fresh raw observations (null: the tail), run through the stored transforms first
+    public QoSSeries forecast(QoSSeries recent, int steps) {
+        SeriesTransform t = transform(recent);
+        QoSSeries origin = origin(recent, t);
+        if (origin.length() < p) throw new IllegalArgumentException("need " + p + " transformed rows, have " + origin.length());
+        QoSSeries preds = QoSSeries.allocate(names, steps);
+        model().forecastInto(origin, preds);
+        t.invert(preds);
+        return preds;
+    }
+
+    // transform state for a forecast from recent raw rows (null: from the tail); origin() positions it, invert() then
+    // maps the forecast back to the original scale
+    public SeriesTransform transform(QoSSeries recent) {
+        return recent == null ? transform.copy() : transform.fresh();
+    }
+
+    // transformed forecast origin: the embedded tail, or recent raw rows run through t in place
+    public QoSSeries origin(QoSSeries recent, SeriesTransform t) {
+        if (recent == null) {
+            QoSSeries origin = QoSSeries.allocate(names, tail.length);
+            for (int r = 0; r < tail.length; r++)
+                for (int j = 0; j < names.length; j++) origin.set(r, j, tail[r][j]);
+            return origin;
+        }
+        if (recent.width() != names.length)
+            throw new IllegalArgumentException("expected " + names.length + " series, got " + recent.width());
+        return t.apply(recent);
+    }
+
+    // last p rows of a transformed origin, oldest first, n values per row (ForecastKernel.Batch input)
+    public double[] window(QoSSeries origin) {
+        int n = names.length, T = origin.length();
+        if (T < p) throw new IllegalArgumentException("need " + p + " transformed rows, have " + T);
+        double[] w = new double[n * p];
+        for (int r = 0; r < p; r++)
+            for (int j = 0; j < n; j++) w[r * n + j] = origin.get(T - p + r, j);
+        return w;
+    }
+
+    // "Step,<name>_pred..." then one row per step
+    static void writeCsv(Writer w, QoSSeries preds) throws IOException {
+        w.write("Step");
+        for (int j = 0; j < preds.width(); j++) w.write("," + preds.name(j) + "_pred");
+        w.write('\n');
+        for (int t = 0; t < preds.length(); t++) {
+            w.write(Integer.toString(t + 1));
+            for (int j = 0; j < preds.width(); j++) w.write(String.format(Locale.ROOT, ",%.6f", preds.get(t, j)));
+            w.write('\n');
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(1024 + 8 * B.length * names.length);
+        DataOutputStream d = new DataOutputStream(buf);
+        d.writeUTF(settings);
+        d.writeInt(names.length);
+        for (String s : names) d.writeUTF(s);
+        d.writeInt(p);
+        d.writeDouble(ic);
+        transform.write(d);
+        for (double[] row : B) for (double v : row) d.writeDouble(v);
+        d.writeInt(tail.length);
+        for (double[] row : tail) for (double v : row) d.writeDouble(v);
+        d.flush();
+        byte[] payload = buf.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeLong(crc.getValue());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ModelSnapshot read(Path file) throws IOException {
+        byte[] payload;
+        int version;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + ": not a model snapshot");
+            version = in.readInt();
+            if (version < 1 || version > VERSION) throw new IOException(file + ": unsupported snapshot version " + version);
+            payload = new byte[in.readInt()];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if (in.readLong() != crc.getValue()) throw new IOException(file + ": checksum mismatch");
+        }
+        DataInputStream d = new DataInputStream(new ByteArrayInputStream(payload));
+        String settings = d.readUTF();
+        int n = d.readInt();
+        String[] names = new String[n];
+        for (int j = 0; j < n; j++) names[j] = d.readUTF();
+        int p = d.readInt();
+        double ic = d.readDouble();
+        SeriesTransform transform;
+        if (version == 1) {
+            int[] diff = new int[n];
+            for (int j = 0; j < n; j++) diff[j] = d.readInt();
+            double[][] ms = null;
+            if (d.readBoolean()) {
+                ms = new double[n][2];
+                for (double[] m : ms) { m[0] = d.readDouble(); m[1] = d.readDouble(); }
+            }
+            transform = ms == null ? new SeriesTransform.Chain(new SeriesTransform.Difference(diff))
+                    : new SeriesTransform.Chain(new SeriesTransform.Difference(diff), SeriesTransform.ZScore.of(ms));
+        } else {
+            transform = SeriesTransform.read(d, n);
+        }
+        double[][] B = new double[1 + n * p][n];
+        for (double[] row : B) for (int j = 0; j < n; j++) row[j] = d.readDouble();
+        double[][] tail = new double[d.readInt()][n];
+        for (double[] row : tail) for (int j = 0; j < n; j++) row[j] = d.readDouble();
+        return new ModelSnapshot(names, p, ic, B, transform, tail, settings);
+    }
+
+    // Forecast-only mode: no ADF, no lag search, no fit.
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java ModelSnapshot <snapshot> <steps> [recent_csv] [out_csv]");
+            return;
+        }
+        long t0 = System.nanoTime();
+        ModelSnapshot s = read(Paths.get(args[0]));
+        int steps = Integer.parseInt(args[1]);
+        long t1 = System.nanoTime();
+        QoSSeries preds;
+        if (args.length > 2 && !args[2].equals("-")) {
+            QoSSeries recent = QoSCsvReader.load(args[2], String.join(",", s.names), false, null);
+            preds = s.forecast(recent, steps);
+        } else {
+            preds = s.forecast(steps);
+        }
+        long t2 = System.nanoTime();
+        String out = args.length > 3 ? args[3] : "VAR_forecast.csv";
+        try (BufferedWriter w = Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8)) {
+            writeCsv(w, preds);
+        }
+        System.out.printf("Snapshot p=%d, %d series, loaded in %.2f ms; %d-step forecast in %.2f ms -> %s%n",
+                s.p, s.width(), (t1 - t0) / 1e6, steps, (t2 - t1) / 1e6, out);
+    }
+}
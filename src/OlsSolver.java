@@ -0,0 +1,261 @@
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RRQRDecomposition;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import java.util.stream.IntStream;
+
+// Least-squares solvers for the VAR regression; B is (1+n*p) x n with the intercept row first, then the lag blocks.
+// Gram-based solvers start from VARGram (one blocked pass over the columns, X is never built).
+public interface OlsSolver {
+
+    OlsSolver CHOLESKY = new Cholesky();
+    OlsSolver QR = new QR();
+
+    // lag-p fit from the leading block of a Gram built for any lag >= p
+    double[][] solve(VARGram g, int p);
+
+    default double[][] solve(QoSSeries data, int p) {
+        return solve(VARGram.compute(data, p), p);
+    }
+
+    // B with the effective number of slope coefficients it spends (n*n*p for least squares), for the IC penalty
+    default Fit fit(VARGram g, int p) {
+        return new Fit(solve(g, p), (double) g.n * g.n * p, 0.0);
+    }
+
+    default Fit fit(QoSSeries data, int p) {
+        return new Fit(solve(data, p), (double) data.width() * data.width() * p, 0.0);
+    }
+
+    // true when fitting from the series beats fitting from the Gram numerically; lag selection still ranks lags
+    // from the Gram, then refits the chosen one from the series
+    default boolean fitsFromData() { return false; }
+
+    final class Fit {
+        public final double[][] B;
+        public final double df, lambda;   // lambda 0: B solves the normal equations
+
+        public Fit(double[][] B, double df, double lambda) {
+            this.B = B;
+            this.df = df;
+            this.lambda = lambda;
+        }
+    }
+
+    // penalty per regression row on every coefficient except the intercept
+    static OlsSolver ridge(double lambda) { return new Ridge(lambda); }
+
+    // ridge path on standardized regressors, lambda chosen per lag by AIC or BIC
+    static OlsSolver ridgePath(boolean byAIC) { return new PenalizedSolver.RidgePath(byAIC); }
+
+    // lasso (alpha = 1) or elastic net by coordinate descent, lambda chosen per lag by AIC or BIC
+    static OlsSolver elasticNet(double alpha, boolean byAIC) { return new PenalizedSolver.ElasticNet(alpha, Double.NaN, byAIC); }
+
+    // same at a fixed lambda on the standardized scale
+    static OlsSolver elasticNet(double alpha, double lambda) { return new PenalizedSolver.ElasticNet(alpha, lambda, true); }
+
+    // "cholesky", "qr", "ridge:<lambda>", "ridge:aic|bic", "lasso[:aic|bic|<lambda>]", "enet:<alpha>[:aic|bic|<lambda>]"
+    static OlsSolver byName(String name) {
+        String s = name.trim().toLowerCase();
+        if (s.equals("cholesky")) return CHOLESKY;
+        if (s.equals("qr")) return QR;
+        if (s.equals("ridge:aic") || s.equals("ridge:bic")) return ridgePath(s.endsWith("aic"));
+        if (s.startsWith("ridge")) return ridge(s.startsWith("ridge:") ? Double.parseDouble(s.substring(6)) : 1e-3);
+        if (s.startsWith("lasso") || s.startsWith("enet:")) {
+            String[] a = s.split(":");
+            double alpha = a[0].equals("lasso") ? 1.0 : Double.parseDouble(a[1]);
+            String sel = a.length > (a[0].equals("lasso") ? 1 : 2) ? a[a.length - 1] : "aic";
+            if (sel.equals("aic") || sel.equals("bic")) return elasticNet(alpha, sel.equals("aic"));
+            return elasticNet(alpha, Double.parseDouble(sel));
+        }
+        throw new IllegalArgumentException("unknown solver: " + name);
+    }
+
+    class Cholesky implements OlsSolver {
+        @Override public String toString() { return "cholesky"; }
+
+        public double[][] solve(VARGram g, int p) {
+            double[][] A = g.xtx(p), R = g.xty(p);
+            double[][] B = solve(A, R, 0.0);
+            return B != null ? B : svd(A, R);
+        }
+
+        static final int NB = 64;                // panel width: the panel's rows stay in cache while every row below streams past
+        static final int PARALLEL_MIN_K = 192;   // smaller systems are factored and solved on the calling thread
+
+        // (A + ridge*I except [0][0]) B = R by one Cholesky factorisation of the diagonally scaled matrix;
+        // null when it is not numerically positive definite
+        static double[][] solve(double[][] A, double[][] R, double ridge) {
+            int K = A.length, n = R[0].length;
+            double[] d = new double[K];
+            for (int i = 0; i < K; i++) {
+                double a = A[i][i] + (i > 0 ? ridge : 0.0);
+                if (!(a > 0)) return null;
+                d[i] = 1.0 / Math.sqrt(a);
+            }
+            double[][] L = factor(A, d, ridge);
+            if (L == null) return null;
+            // U[i][q - i] = L[q][i], so both substitutions are contiguous dot products
+            double[][] U = new double[K][];
+            for (int i = 0; i < K; i++) {
+                double[] Ui = U[i] = new double[K - i];
+                for (int q = i; q < K; q++) Ui[q - i] = L[q][i];
+            }
+            // every equation is an independent pair of triangular solves against the shared factor
+            double[][] B = new double[K][n];
+            IntStream eqs = IntStream.range(0, n);
+            (K >= PARALLEL_MIN_K ? eqs.parallel() : eqs).forEach(j -> {
+                double[] x = new double[K];
+                for (int i = 0; i < K; i++) {
+                    double[] Li = L[i];
+                    double v = R[i][j] * d[i];
+                    for (int q = 0; q < i; q++) v -= Li[q] * x[q];
+                    x[i] = v / Li[i];
+                }
+                for (int i = K - 1; i >= 0; i--) {
+                    double[] Ui = U[i];
+                    double v = x[i];
+                    for (int q = 1; q < Ui.length; q++) v -= Ui[q] * x[i + q];
+                    x[i] = v / Ui[0];
+                }
+                for (int i = 0; i < K; i++) B[i][j] = x[i] * d[i];
+            });
+            return B;
+        }
+
+        // Lower factor (row i holds i+1 entries) of D (A + ridge) D, D = diag(d), left-looking in panels of NB columns:
+        // the panel's diagonal block is factored first, then the rows below it are independent and updated in parallel.
+        static double[][] factor(double[][] A, double[] d, double ridge) {
+            int K = A.length;
+            double[][] L = new double[K][];
+            for (int i = 0; i < K; i++) {
+                double[] Li = L[i] = new double[i + 1];
+                for (int j = 0; j <= i; j++) Li[j] = (A[i][j] + (i == j && i > 0 ? ridge : 0.0)) * d[i] * d[j];
+            }
+            for (int jb = 0; jb < K; jb += NB) {
+                int je = Math.min(K, jb + NB);
+                for (int i = jb; i < je; i++) if (!panelRow(L, i, jb, je)) return null;
+                IntStream below = IntStream.range(je, K);
+                int from = jb, to = je;
+                (K >= PARALLEL_MIN_K ? below.parallel() : below).forEach(i -> panelRow(L, i, from, to));
+            }
+            return L;
+        }
+
+        // columns [jb, min(je, i + 1)) of row i; false when the diagonal is not positive
+        static boolean panelRow(double[][] L, int i, int jb, int je) {
+            double[] Li = L[i];
+            for (int j = jb, end = Math.min(je, i + 1); j < end; j++) {
+                double[] Lj = L[j];
+                double v = Li[j];
+                for (int q = 0; q < j; q++) v -= Li[q] * Lj[q];
+                if (j == i) {
+                    if (v <= 1e-13) return false;
+                    Li[j] = Math.sqrt(v);
+                } else {
+                    Li[j] = v / Lj[j];
+                }
+            }
+            return true;
+        }
+
+        // minimum-norm solution for rank-deficient systems, as the previous LU path fell back to
+        static double[][] svd(double[][] A, double[][] R) {
+            return new SingularValueDecomposition(MatrixUtils.createRealMatrix(A)).getSolver()
+                    .solve(MatrixUtils.createRealMatrix(R)).getData();
+        }
+    }
+
+    class Ridge implements OlsSolver {
+        final double lambda;
+
+        @Override public String toString() { return "ridge:" + lambda; }
+
+        Ridge(double lambda) {
+            if (lambda < 0) throw new IllegalArgumentException("ridge penalty must be >= 0: " + lambda);
+            this.lambda = lambda;
+        }
+
+        public double[][] solve(VARGram g, int p) {
+            double[][] A = g.xtx(p), R = g.xty(p);
+            double[][] B = Cholesky.solve(A, R, lambda * g.rows);
+            return B != null ? B : Cholesky.svd(A, R);
+        }
+
+        // df per equation is tr((A + ridge)^-1 A) - 1 = K - 1 - ridge * sum of the slope diagonal of (A + ridge)^-1
+        @Override
+        public Fit fit(VARGram g, int p) {
+            double[][] A = g.xtx(p);
+            int K = A.length;
+            double ridge = lambda * g.rows;
+            double[][] I = new double[K][K];
+            for (int i = 0; i < K; i++) I[i][i] = 1.0;
+            double[][] inv = ridge > 0 ? Cholesky.solve(A, I, ridge) : null;
+            double df = K - 1;
+            if (inv != null) for (int i = 1; i < K; i++) df -= ridge * inv[i][i];
+            return new Fit(solve(g, p), g.n * df, lambda);
+        }
+
+        @Override
+        public Fit fit(QoSSeries data, int p) { return fit(VARGram.compute(data, p), p); }
+    }
+
+    // For ill-conditioned regressions: works on X itself, so the condition number is not squared as in X'X.
+    class QR implements OlsSolver {
+        static final double RANK_TOL = 1e-12;
+
+        @Override public String toString() { return "qr"; }
+
+        @Override public boolean fitsFromData() { return true; }
+
+        // only the Gram is at hand: rank-revealing (column-pivoted) QR of X'X, which squares the condition number
+        // like any Gram solve. Good enough to rank lags by IC; the final fit goes through solve(QoSSeries, p).
+        public double[][] solve(VARGram g, int p) {
+            return new RRQRDecomposition(MatrixUtils.createRealMatrix(g.xtx(p)), RANK_TOL).getSolver()
+                    .solve(MatrixUtils.createRealMatrix(g.xty(p))).getData();
+        }
+
+        // Givens rotations fold each row [x_t, y_t] into an upper-trapezoidal R = [R_xx | Q'Y], one row at a time
+        @Override
+        public double[][] solve(QoSSeries data, int p) {
+            int n = data.width(), T = data.length(), off = data.offset(), K = 1 + n * p, W = K + n;
+            if (T <= p) throw new IllegalArgumentException("series length " + T + " <= lag " + p);
+            double[][] cols = new double[n][];
+            for (int j = 0; j < n; j++) cols[j] = data.column(j);
+            double[][] R = new double[K][W];
+            double[] z = new double[W];
+            for (int t = off + p; t < off + T; t++) {
+                z[0] = 1.0;
+                for (int lag = 1; lag <= p; lag++)
+                    for (int j = 0; j < n; j++) z[1 + (lag - 1) * n + j] = cols[j][t - lag];
+                for (int j = 0; j < n; j++) z[K + j] = cols[j][t];
+                for (int k = 0; k < K; k++) {
+                    double b = z[k];
+                    if (b == 0) continue;
+                    double[] Rk = R[k];
+                    double a = Rk[k], r = Math.sqrt(a * a + b * b), c = a / r, s = b / r;
+                    Rk[k] = r;
+                    for (int m = k + 1; m < W; m++) {
+                        double rk = Rk[m], zm = z[m];
+                        Rk[m] = c * rk + s * zm;
+                        z[m] = c * zm - s * rk;
+                    }
+                }
+            }
+            double maxDiag = 0;
+            for (int k = 0; k < K; k++) maxDiag = Math.max(maxDiag, Math.abs(R[k][k]));
+            // back substitution; directions below the rank tolerance get a zero coefficient
+            double[][] B = new double[K][n];
+            for (int k = K - 1; k >= 0; k--) {
+                double[] Rk = R[k];
+                if (Math.abs(Rk[k]) <= RANK_TOL * maxDiag) continue;
+                for (int j = 0; j < n; j++) {
+                    double v = Rk[K + j];
+                    for (int q = k + 1; q < K; q++) v -= Rk[q] * B[q][j];
+                    B[k][j] = v / Rk[k];
+                }
+            }
+            return B;
+        }
+    }
+}
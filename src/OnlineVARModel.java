@@ -0,0 +1,183 @@
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// VAR(p) fitted by recursive least squares, one observation at a time.
+// Each update is O(K^2 + K*n) with K = 1 + n*p, independent of how much history has been seen.
+public class OnlineVARModel {
+
+    final int n, p, K;
+    final double lambda;   // forgetting factor in (0, 1]; 1 = ordinary growing-window least squares
+    final double[] B;      // K x n, row-major: B[k*n + j]
+    final double[] P;      // K x K inverse (weighted) Gram, row-major
+    final double[] ring;   // last p observations, newest at slot head
+    final double[] x, Px, err;
+    int head, filled;
+    long updates;
+
+    public OnlineVARModel(int n, int p, double lambda, double delta) {
+        if (lambda <= 0 || lambda > 1) throw new IllegalArgumentException("forgetting factor must be in (0, 1]: " + lambda);
+        this.n = n;
+        this.p = p;
+        this.K = 1 + n * p;
+        this.lambda = lambda;
+        this.B = new double[K * n];
+        this.P = new double[K * K];
+        for (int k = 0; k < K; k++) P[k * K + k] = delta;
+        this.ring = new double[p * n];
+        this.x = new double[K];
+        this.Px = new double[K];
+        this.err = new double[n];
+    }
+
+    // starts from a batch fit: B from the model, P = (X'X)^-1 from the Gram it was solved on, ring from the tail of data
+    public static OnlineVARModel fromBatch(VARPipelineFull.VARModel m, VARGram g, QoSSeries data, double lambda) {
+        OnlineVARModel o = new OnlineVARModel(m.n, m.p, lambda, 0);
+        RealMatrix inv = new LUDecomposition(MatrixUtils.createRealMatrix(g.xtx(m.p))).getSolver().getInverse();
+        for (int a = 0; a < o.K; a++) {
+            for (int b = 0; b < o.K; b++) o.P[a * o.K + b] = inv.getEntry(a, b);
+            for (int j = 0; j < o.n; j++) o.B[a * o.n + j] = m.B.getEntry(a, j);
+        }
+        double[] row = new double[o.n];
+        for (int t = data.length() - m.p; t < data.length(); t++) {
+            for (int j = 0; j < o.n; j++) row[j] = data.get(t, j);
+            o.push(row, 0);
+        }
+        return o;
+    }
+
+    public boolean ready() { return filled >= p; }
+
+    // folds observation y[off..off+n) into B and P (once p earlier observations exist), then appends it to the lag window
+    public void update(double[] y, int off) {
+        if (ready()) {
+            double denom = lambda;
+            for (int a = 0; a < K; a++) {
+                double s = 0;
+                int r = a * K;
+                for (int b = 0; b < K; b++) s += P[r + b] * x[b];
+                Px[a] = s;
+                denom += x[a] * s;
+            }
+            for (int j = 0; j < n; j++) err[j] = y[off + j];
+            for (int k = 0; k < K; k++) {
+                double xk = x[k];
+                int r = k * n;
+                for (int j = 0; j < n; j++) err[j] -= B[r + j] * xk;
+            }
+            double inv = 1.0 / denom;
+            for (int k = 0; k < K; k++) {
+                double gk = Px[k] * inv;
+                int r = k * n;
+                for (int j = 0; j < n; j++) B[r + j] += gk * err[j];
+            }
+            // P = (P - Px Px' / denom) / lambda, kept exactly symmetric
+            double scale = 1.0 / lambda;
+            for (int a = 0; a < K; a++) {
+                double pa = Px[a] * inv;
+                for (int b = a; b < K; b++) {
+                    double v = (P[a * K + b] - pa * Px[b]) * scale;
+                    P[a * K + b] = v;
+                    P[b * K + a] = v;
+                }
+            }
+            updates++;
+        }
+        push(y, off);
+    }
+
+    void push(double[] y, int off) {
+        head = (head + 1) % p;
+        System.arraycopy(y, off, ring, head * n, n);
+        if (filled < p) filled++;
+        x[0] = 1.0;
+        int slot = head;
+        for (int lag = 0; lag < p; lag++) {
+            System.arraycopy(ring, slot * n, x, 1 + lag * n, n);
+            slot = slot == 0 ? p - 1 : slot - 1;
+        }
+    }
+
+    // one-step forecast of the next observation into out[off..off+n)
+    public void predictNext(double[] out, int off) {
+        if (!ready()) throw new IllegalStateException("need " + p + " observations, have " + filled);
+        for (int j = 0; j < n; j++) out[off + j] = 0;
+        for (int k = 0; k < K; k++) {
+            double xk = x[k];
+            int r = k * n;
+            for (int j = 0; j < n; j++) out[off + j] += B[r + j] * xk;
+        }
+    }
+
+    // Replays a CSV (or reads "Time,v1..vn" lines from stdin with "-") through the model one row at a time.
+    // From stdin the width comes from the first line, which may be a header.
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java OnlineVARModel <csv_file|-> [p] [forgetting_factor] [columns|all]");
+            return;
+        }
+        int p = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        double lambda = args.length > 2 ? Double.parseDouble(args[2]) : 0.999;
+        String columns = args.length > 3 ? args[3] : "all";
+
+        if (args[0].equals("-")) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line = in.readLine();
+            if (line == null) return;
+            int n = line.split(",").length - 1;
+            OnlineVARModel m = new OnlineVARModel(n, p, lambda, 1e4);
+            double[] pred = new double[n];
+            double[] y = new double[n];
+            for (; line != null; line = in.readLine()) {
+                String[] f = line.split(",");
+                if (f.length < n + 1) continue;
+                try {
+                    for (int j = 0; j < n; j++) y[j] = Double.parseDouble(f[j + 1].trim());
+                } catch (NumberFormatException header) {
+                    continue;
+                }
+                m.update(y, 0);
+                if (!m.ready()) continue;
+                m.predictNext(pred, 0);
+                StringBuilder sb = new StringBuilder(f[0]);
+                for (int j = 0; j < n; j++) sb.append(',').append(pred[j]);
+                System.out.println(sb);
+            }
+            return;
+        }
+
+        QoSSeries data = QoSCsvReader.load(args[0], columns, false, null);
+        int n = data.width(), T = data.length();
+        if (T == 0) {
+            System.out.println(args[0] + ": no rows");
+            return;
+        }
+        OnlineVARModel m = new OnlineVARModel(n, p, lambda, 1e4);
+        double[] pred = new double[n];
+        long[] nanos = new long[T];
+        double[] y = new double[n], sq = new double[n];
+        int scored = 0;
+        for (int t = 0; t < T; t++) {
+            for (int j = 0; j < n; j++) y[j] = data.get(t, j);
+            if (m.ready()) {
+                m.predictNext(pred, 0);
+                for (int j = 0; j < n; j++) sq[j] += (y[j] - pred[j]) * (y[j] - pred[j]);
+                scored++;
+            }
+            long s = System.nanoTime();
+            m.update(y, 0);
+            nanos[t] = System.nanoTime() - s;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("Updates: %d (p=%d, lambda=%.4f, K=%d)%n", m.updates, p, lambda, m.K);
+        System.out.printf("Update latency: p50 %.2f us, p99 %.2f us, max %.2f us%n",
+                nanos[T / 2] / 1e3, nanos[(int) (T * 0.99)] / 1e3, nanos[T - 1] / 1e3);
+        for (int j = 0; j < n; j++)
+            System.out.printf("Series %d -> one-step RMSE: %.6f%n", j + 1, Math.sqrt(sq[j] / Math.max(1, scored)));
+    }
+}
@@ -0,0 +1,300 @@
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Shrinkage fits for wide VARs, worked entirely from the Gram. Regressors are centered and scaled to unit variance,
+// the intercepts are left unpenalised (they come back from the means), and equation j minimises
+//   1/2 b'Rb - b'r_j + lambda * (alpha * |b|_1 + (1 - alpha)/2 * |b|^2)
+// with R the correlation matrix of the n*p lagged values and r_j their covariance with y_j over their scale.
+// Without a fixed lambda a descending path is fitted and the point with the lowest AIC/BIC is kept; the IC penalty
+// counts effective degrees of freedom rather than n*n*p.
+public abstract class PenalizedSolver implements OlsSolver {
+
+    static final int PATH = 40;   // lambdas per path, log-spaced
+
+    final boolean byAIC;
+
+    PenalizedSolver(boolean byAIC) { this.byAIC = byAIC; }
+
+    public double[][] solve(VARGram g, int p) { return fit(g, p).B; }
+
+    @Override
+    public Fit fit(QoSSeries data, int p) { return fit(VARGram.compute(data, p), p); }
+
+    // from hi down to hi * ratio
+    static double[] grid(double hi, double ratio) {
+        double[] l = new double[PATH];
+        for (int i = 0; i < PATH; i++) l[i] = hi * Math.pow(ratio, i / (double) (PATH - 1));
+        return l;
+    }
+
+    double ic(double[][] cov, int rows, double df) {
+        RealMatrix c = MatrixUtils.createRealMatrix(cov);
+        return byAIC ? VARPipelineFull.IC.computeAIC(c, rows, df) : VARPipelineFull.IC.computeBIC(c, rows, df);
+    }
+
+    // the standardized lag-p regression
+    static final class Problem {
+        final int n, q, rows;
+        final double[] mx, my, sd;
+        final double[][] R, r, cyy;   // r[j][a]: equation j, regressor a
+
+        Problem(VARGram g, int p) {
+            double[][] A = g.xtx(p), XY = g.xty(p);
+            n = g.n;
+            q = A.length - 1;
+            rows = g.rows;
+            double L = rows;
+            mx = new double[q];
+            my = new double[n];
+            sd = new double[q];
+            for (int a = 0; a < q; a++) mx[a] = A[0][a + 1] / L;
+            for (int j = 0; j < n; j++) my[j] = XY[0][j] / L;
+            // constant regressors (zero variance) get a zero scale and stay out of every fit
+            for (int a = 0; a < q; a++) {
+                double v = A[a + 1][a + 1] / L - mx[a] * mx[a];
+                sd[a] = v > 1e-12 * (1 + mx[a] * mx[a]) ? Math.sqrt(v) : 0.0;
+            }
+            R = new double[q][q];
+            for (int a = 0; a < q; a++) {
+                if (sd[a] == 0) continue;
+                for (int b = 0; b <= a; b++) {
+                    if (sd[b] == 0) continue;
+                    R[a][b] = R[b][a] = (A[a + 1][b + 1] / L - mx[a] * mx[b]) / (sd[a] * sd[b]);
+                }
+            }
+            r = new double[n][q];
+            for (int j = 0; j < n; j++)
+                for (int a = 0; a < q; a++) if (sd[a] != 0) r[j][a] = (XY[a + 1][j] / L - mx[a] * my[j]) / sd[a];
+            int y = g.yIndex();
+            cyy = new double[n][n];
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < n; j++) cyy[i][j] = g.G[y + i][y + j] / L - my[i] * my[j];
+        }
+
+        // residual covariance from standardized slopes beta[j] and rb[j] = R beta[j]
+        double[][] cov(double[][] beta, double[][] rb) {
+            double[][] c = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double s = cyy[i][j];
+                    double[] bi = beta[i], bj = beta[j];
+                    for (int a = 0; a < q; a++) s += bi[a] * (rb[j][a] - r[j][a]) - bj[a] * r[i][a];
+                    c[i][j] = c[j][i] = s;
+                }
+            }
+            return c;
+        }
+
+        // (1+q) x n coefficients on the original scale, intercept row first
+        double[][] unscale(double[][] beta) {
+            double[][] B = new double[q + 1][n];
+            for (int j = 0; j < n; j++) {
+                double b0 = my[j];
+                for (int a = 0; a < q; a++) {
+                    double b = sd[a] == 0 ? 0.0 : beta[j][a] / sd[a];
+                    B[a + 1][j] = b;
+                    b0 -= b * mx[a];
+                }
+                B[0][j] = b0;
+            }
+            return B;
+        }
+    }
+
+    // Closed form along the whole path from one eigendecomposition R = V D V': with u_j = V'r_j the slopes are
+    // V u_j / (D + lambda), the covariance and df = n * sum d / (d + lambda) need only D and u.
+    static final class RidgePath extends PenalizedSolver {
+        RidgePath(boolean byAIC) { super(byAIC); }
+
+        @Override public String toString() { return "ridge:" + (byAIC ? "aic" : "bic"); }
+
+        @Override
+        public Fit fit(VARGram g, int p) {
+            Problem pr = new Problem(g, p);
+            int n = pr.n, q = pr.q;
+            EigenDecomposition e = new EigenDecomposition(MatrixUtils.createRealMatrix(pr.R));
+            double[] d = e.getRealEigenvalues();
+            double[][] V = e.getV().getData();
+            double dMax = 0;
+            for (int i = 0; i < q; i++) dMax = Math.max(dMax, d[i] = Math.max(d[i], 0.0));
+            double[][] u = new double[n][q];
+            for (int j = 0; j < n; j++)
+                for (int a = 0; a < q; a++) {
+                    double rja = pr.r[j][a];
+                    if (rja != 0) for (int i = 0; i < q; i++) u[j][i] += V[a][i] * rja;
+                }
+
+            double best = Double.POSITIVE_INFINITY, bestLambda = 0, bestDf = 0;
+            for (double lambda : grid(dMax, 1e-6)) {
+                double df = 0;
+                for (int i = 0; i < q; i++) df += d[i] / (d[i] + lambda);
+                double[][] cov = new double[n][n];
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j <= i; j++) {
+                        double s = pr.cyy[i][j];
+                        for (int k = 0; k < q; k++) {
+                            double h = 1.0 / (d[k] + lambda);
+                            s += u[i][k] * u[j][k] * h * (d[k] * h - 2);
+                        }
+                        cov[i][j] = cov[j][i] = s;
+                    }
+                }
+                double ic = ic(cov, pr.rows, n * df);
+                if (ic < best) { best = ic; bestLambda = lambda; bestDf = n * df; }
+            }
+
+            double[][] beta = new double[n][q];
+            for (int j = 0; j < n; j++)
+                for (int k = 0; k < q; k++) {
+                    double w = u[j][k] / (d[k] + bestLambda);
+                    for (int a = 0; a < q; a++) beta[j][a] += V[a][k] * w;
+                }
+            return new Fit(pr.unscale(beta), bestDf, bestLambda);
+        }
+    }
+
+    // Covariance-update coordinate descent (every step reads one column of R and keeps the gradient r_j - R b
+    // current), warm-started down the lambda path. The n equations are independent and each lambda runs them in
+    // parallel; the IC is scored between lambdas, so the path stops once it has passed the minimum.
+    static final class ElasticNet extends PenalizedSolver {
+        static final double TOL = 1e-7;       // largest coefficient change of a converged sweep, standardized scale
+        static final int MAX_SWEEPS = 10000;  // per lambda
+        static final int STOP_AFTER = 5;      // lambdas without a new IC minimum before the rest of the path is skipped
+
+        final double alpha, lambda;   // lambda NaN: chosen along the path
+
+        ElasticNet(double alpha, double lambda, boolean byAIC) {
+            super(byAIC);
+            if (!(alpha > 0 && alpha <= 1)) throw new IllegalArgumentException("elastic net alpha must be in (0, 1]: " + alpha);
+            if (lambda < 0) throw new IllegalArgumentException("penalty must be >= 0: " + lambda);
+            this.alpha = alpha;
+            this.lambda = lambda;
+        }
+
+        @Override
+        public String toString() {
+            String sel = Double.isNaN(lambda) ? (byAIC ? "aic" : "bic") : Double.toString(lambda);
+            return (alpha == 1 ? "lasso:" : "enet:" + alpha + ":") + sel;
+        }
+
+        @Override
+        public Fit fit(VARGram g, int p) {
+            Problem pr = new Problem(g, p);
+            int n = pr.n, q = pr.q;
+            double rMax = 0;
+            for (double[] rj : pr.r) for (double v : rj) rMax = Math.max(rMax, Math.abs(v));
+            // above lambdaMax every slope is zero; a fixed lambda still walks the path down to it for the warm starts
+            double[] path = grid(Math.max(rMax / alpha, Double.MIN_NORMAL), 1e-4);
+            boolean select = Double.isNaN(lambda);
+            if (!select) {
+                int m = 0;
+                while (m < PATH && path[m] > lambda) m++;
+                path = Arrays.copyOf(path, m + 1);
+                path[m] = lambda;
+            }
+
+            double[][] beta = new double[n][q], grad = new double[n][], rb = new double[n][q];
+            for (int j = 0; j < n; j++) grad[j] = pr.r[j].clone();
+            double[] df = new double[n];
+            double[][] bestB = null, lastB = null;
+            double bestIC = Double.POSITIVE_INFINITY, bestDf = 0, bestLambda = 0, lastDf = 0, lastLambda = 0;
+            for (int l = 0, worse = 0; l < path.length && worse < STOP_AFTER; l++) {
+                double l1 = path[l] * alpha, l2 = path[l] * (1 - alpha);
+                IntStream.range(0, n).parallel().forEach(j -> df[j] = descend(pr.R, beta[j], grad[j], l1, l2));
+                double total = 0;
+                for (int j = 0; j < n; j++) total += df[j];
+                if (select) {
+                    for (int j = 0; j < n; j++) for (int a = 0; a < q; a++) rb[j][a] = pr.r[j][a] - grad[j][a];
+                    double ic = ic(pr.cov(beta, rb), pr.rows, total);
+                    if (!(ic < bestIC)) {
+                        // no finite IC yet (degenerate residual covariance): remember the last point with finite slopes
+                        if (bestB == null && finite(beta)) { lastB = pr.unscale(beta); lastDf = total; lastLambda = path[l]; }
+                        worse++;
+                        continue;
+                    }
+                    bestIC = ic;
+                    worse = 0;
+                }
+                bestB = pr.unscale(beta);
+                bestDf = total;
+                bestLambda = path[l];
+            }
+            if (bestB != null) return new Fit(bestB, bestDf, bestLambda);
+            if (lastB == null) throw new IllegalStateException(this + ": no lambda on the path gave finite coefficients (p=" + p + ")");
+            return new Fit(lastB, lastDf, lastLambda);
+        }
+
+        static boolean finite(double[][] b) {
+            for (double[] row : b) for (double v : row) if (!Double.isFinite(v)) return false;
+            return true;
+        }
+
+        // one equation at one lambda from its current b and gradient; sweeps alternate between every coordinate and
+        // the current non-zeros, and a converged sweep over the non-zeros is confirmed by one over every coordinate.
+        // Returns the effective degrees of freedom of the result.
+        static double descend(double[][] R, double[] b, double[] grad, double l1, double l2) {
+            int q = b.length;
+            boolean all = true;
+            for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+                double change = 0;
+                for (int a = 0; a < q; a++) {
+                    if (!all && b[a] == 0) continue;
+                    double raa = R[a][a];
+                    if (raa == 0) continue;
+                    double z = grad[a] + raa * b[a];
+                    double v = Math.abs(z) <= l1 ? 0.0 : (z - Math.copySign(l1, z)) / (raa + l2);
+                    double delta = v - b[a];
+                    if (delta != 0) {
+                        double[] Ra = R[a];
+                        for (int c = 0; c < q; c++) grad[c] -= delta * Ra[c];
+                        b[a] = v;
+                        change = Math.max(change, Math.abs(delta));
+                    }
+                }
+                if (change < TOL) {
+                    if (all) break;
+                    all = true;
+                } else {
+                    all = false;
+                }
+            }
+            int[] active = new int[q];
+            int m = 0;
+            for (int a = 0; a < q; a++) if (b[a] != 0) active[m++] = a;
+            return l2 == 0 ? m : dfActive(R, active, m, l2);
+        }
+
+        // tr(R_AA (R_AA + l2 I)^-1) = |A| - l2 * tr((R_AA + l2 I)^-1), the trace of the inverse from a Cholesky factor
+        static double dfActive(double[][] R, int[] active, int m, double l2) {
+            double[][] C = new double[m][m];
+            for (int i = 0; i < m; i++) {
+                for (int k = 0; k <= i; k++) {
+                    double v = R[active[i]][active[k]] + (i == k ? l2 : 0.0);
+                    for (int t = 0; t < k; t++) v -= C[i][t] * C[k][t];
+                    if (i == k) {
+                        if (!(v > 0)) return m;
+                        C[i][i] = Math.sqrt(v);
+                    } else {
+                        C[i][k] = v / C[k][k];
+                    }
+                }
+            }
+            // tr(M^-1) = |C^-1|_F^2, column by column of C^-1
+            double tr = 0;
+            double[] x = new double[m];
+            for (int c = 0; c < m; c++) {
+                for (int i = c; i < m; i++) {
+                    double v = i == c ? 1.0 : 0.0;
+                    for (int t = c; t < i; t++) v -= C[i][t] * x[t];
+                    x[i] = v / C[i][i];
+                    tr += x[i] * x[i];
+                }
+            }
+            return m - l2 * tr;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Stage timers for the pipeline: calls, wall nanoseconds, rows, bytes and bytes allocated by the calling thread
+// (ThreadMXBean; work forked to other threads, e.g. the parallel ADF tests, is not attributed).
+// Stages aggregate by name across threads and runs. Exporters either write the aggregate on export()
+// (Prometheus text, JSON) or see every finished stage as it happens (JFR events).
+//   try (PipelineMetrics.Stage s = PipelineMetrics.stage("adf")) { ...; s.rows(T); }
+public final class PipelineMetrics {
+
+    public static final PipelineMetrics GLOBAL = new PipelineMetrics();
+
+    static final com.sun.management.ThreadMXBean ALLOC = allocationBean();
+
+    final Map<String, Stat> stats = new LinkedHashMap<>();
+    final List<Exporter> exporters = new CopyOnWriteArrayList<>();
+
+    public static Stage stage(String name) { return GLOBAL.start(name); }
+
+    public Stage start(String name) { return new Stage(stat(name)); }
+
+    synchronized Stat stat(String name) {
+        Stat s = stats.get(name);
+        if (s == null) stats.put(name, s = new Stat(name));
+        return s;
+    }
+
+    public synchronized List<Stat> snapshot() { return new ArrayList<>(stats.values()); }
+
+    public synchronized void reset() { stats.clear(); }
+
+    public void add(Exporter e) { if (e != null) exporters.add(e); }
+
+    // comma-separated "prom:<file>", "json:<file>", "jfr"; unknown entries are rejected, unavailable JFR is skipped
+    public void addAll(String spec) {
+        for (String s : spec.split(",")) {
+            s = s.trim();
+            if (s.isEmpty()) continue;
+            if (s.startsWith("prom:")) add(new Prometheus(Paths.get(s.substring(5))));
+            else if (s.startsWith("json:")) add(new Json(Paths.get(s.substring(5))));
+            else if (s.equals("jfr")) add(Jfr.create());
+            else throw new IllegalArgumentException("unknown metrics exporter: " + s);
+        }
+    }
+
+    public void export() throws IOException {
+        List<Stat> snap = snapshot();
+        for (Exporter e : exporters) e.export(snap);
+    }
+
+    // console table in stage order
+    public String summary() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-16s %7s %12s %12s %12s %14s %12s%n",
+                "stage", "calls", "total ms", "max ms", "rows", "bytes", "alloc MB"));
+        for (Stat s : snapshot())
+            sb.append(String.format(Locale.ROOT, "%-16s %7d %12.3f %12.3f %12d %14d %12.2f%n", s.name, s.calls.sum(),
+                    s.nanos.sum() / 1e6, s.maxNanos.get() / 1e6, s.rows.sum(), s.bytes.sum(), s.allocated.sum() / 1048576.0));
+        return sb.toString();
+    }
+
+    static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean b = ManagementFactory.getThreadMXBean();
+        if (!(b instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean s = (com.sun.management.ThreadMXBean) b;
+        if (!s.isThreadAllocatedMemorySupported()) return null;
+        if (!s.isThreadAllocatedMemoryEnabled()) s.setThreadAllocatedMemoryEnabled(true);
+        return s;
+    }
+
+    static long allocated() {
+        return ALLOC == null ? 0 : ALLOC.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static final class Stat {
+        public final String name;
+        final LongAdder calls = new LongAdder(), nanos = new LongAdder(), rows = new LongAdder(),
+                bytes = new LongAdder(), allocated = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Stat(String name) { this.name = name; }
+
+        void add(long ns, long rowCount, long byteCount, long alloc) {
+            calls.increment();
+            nanos.add(ns);
+            rows.add(rowCount);
+            bytes.add(byteCount);
+            allocated.add(alloc);
+            for (long m = maxNanos.get(); ns > m && !maxNanos.compareAndSet(m, ns); m = maxNanos.get()) { }
+        }
+    }
+
+    public final class Stage implements AutoCloseable {
+        final Stat stat;
+        final long t0, a0;
+        long rows, bytes;
+
+        Stage(Stat stat) {
+            this.stat = stat;
+            this.a0 = allocated();
+            this.t0 = System.nanoTime();
+        }
+
+        public Stage rows(long n) { rows += n; return this; }
+        public Stage bytes(long n) { bytes += n; return this; }
+
+        @Override
+        public void close() {
+            long ns = System.nanoTime() - t0, alloc = allocated() - a0;
+            stat.add(ns, rows, bytes, alloc);
+            for (Exporter e : exporters) e.stage(stat.name, ns, rows, bytes, alloc);
+        }
+    }
+
+    public interface Exporter {
+        // every finished stage, on the thread that ran it
+        default void stage(String name, long nanos, long rows, long bytes, long allocated) { }
+
+        // the aggregate so far
+        default void export(List<Stat> stats) throws IOException { }
+    }
+
+    // replaces the whole file each time so a scraper or tail never sees a partial write
+    static void writeAtomically(Path file, String text) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(text);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Prometheus text exposition format, e.g. for the node_exporter textfile collector
+    public static final class Prometheus implements Exporter {
+        final Path file;
+
+        public Prometheus(Path file) { this.file = file; }
+
+        @Override
+        public void export(List<Stat> stats) throws IOException {
+            writeAtomically(file, format(stats));
+        }
+
+        public static String format(List<Stat> stats) {
+            StringBuilder sb = new StringBuilder();
+            metric(sb, stats, "var_stage_calls_total", "counter", "Completed calls per pipeline stage", s -> (double) s.calls.sum());
+            metric(sb, stats, "var_stage_seconds_total", "counter", "Wall time per pipeline stage", s -> s.nanos.sum() / 1e9);
+            metric(sb, stats, "var_stage_max_seconds", "gauge", "Longest single call per pipeline stage", s -> s.maxNanos.get() / 1e9);
+            metric(sb, stats, "var_stage_rows_total", "counter", "Rows processed per pipeline stage", s -> (double) s.rows.sum());
+            metric(sb, stats, "var_stage_bytes_total", "counter", "Bytes read or written per pipeline stage", s -> (double) s.bytes.sum());
+            metric(sb, stats, "var_stage_allocated_bytes_total", "counter", "Bytes allocated by the calling thread per pipeline stage",
+                    s -> (double) s.allocated.sum());
+            return sb.toString();
+        }
+
+        interface Value { double of(Stat s); }
+
+        static void metric(StringBuilder sb, List<Stat> stats, String name, String type, String help, Value v) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Stat s : stats)
+                sb.append(name).append("{stage=\"").append(s.name).append("\"} ").append(Double.toString(v.of(s))).append('\n');
+        }
+    }
+
+    public static final class Json implements Exporter {
+        final Path file;
+
+        public Json(Path file) { this.file = file; }
+
+        @Override
+        public void export(List<Stat> stats) throws IOException {
+            StringBuilder sb = new StringBuilder("{\"timestamp_ms\":").append(System.currentTimeMillis()).append(",\"stages\":[");
+            for (int i = 0; i < stats.size(); i++) {
+                Stat s = stats.get(i);
+                if (i > 0) sb.append(',');
+                sb.append(String.format(Locale.ROOT, "%n  {\"stage\":\"%s\",\"calls\":%d,\"nanos\":%d,\"max_nanos\":%d,\"rows\":%d,\"bytes\":%d,\"allocated_bytes\":%d}",
+                        s.name, s.calls.sum(), s.nanos.sum(), s.maxNanos.get(), s.rows.sum(), s.bytes.sum(), s.allocated.sum()));
+            }
+            writeAtomically(file, sb.append("\n]}\n").toString());
+        }
+    }
+
+    // One "voip.PipelineStage" JFR event per finished stage, recorded when a flight recording is running
+    // (java -XX:StartFlightRecording=filename=run.jfr ...). The event type is defined at runtime through
+    // jdk.jfr.EventFactory, looked up reflectively because the build targets Java 8 where jdk.jfr is not in the API.
+    public static final class Jfr implements Exporter {
+        final Object factory;
+        final Method newEvent, set, commit;
+
+        Jfr(Object factory, Method newEvent, Method set, Method commit) {
+            this.factory = factory;
+            this.newEvent = newEvent;
+            this.set = set;
+            this.commit = commit;
+        }
+
+        // null (with a message) when the running JVM has no jdk.jfr
+        public static Jfr create() {
+            try {
+                Class<?> ae = Class.forName("jdk.jfr.AnnotationElement"), vd = Class.forName("jdk.jfr.ValueDescriptor");
+                Class<?> ef = Class.forName("jdk.jfr.EventFactory"), event = Class.forName("jdk.jfr.Event");
+                Constructor<?> annotation = ae.getConstructor(Class.class, Object.class);
+                Constructor<?> annotated = vd.getConstructor(Class.class, String.class, List.class);
+                List<Object> eventAnnotations = Arrays.asList(
+                        annotation.newInstance(Class.forName("jdk.jfr.Name"), "voip.PipelineStage"),
+                        annotation.newInstance(Class.forName("jdk.jfr.Label"), "Pipeline Stage"),
+                        annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"VoIP VAR"}));
+                Object nanos = annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS");
+                Object dataAmount = annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES");
+                List<Object> fields = Arrays.asList(
+                        annotated.newInstance(String.class, "stage", new ArrayList<>()),
+                        annotated.newInstance(long.class, "elapsed", Arrays.asList(nanos)),
+                        annotated.newInstance(long.class, "rows", new ArrayList<>()),
+                        annotated.newInstance(long.class, "bytes", Arrays.asList(dataAmount)),
+                        annotated.newInstance(long.class, "allocated", Arrays.asList(dataAmount)));
+                Object factory = ef.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+                return new Jfr(factory, ef.getMethod("newEvent"), event.getMethod("set", int.class, Object.class),
+                        event.getMethod("commit"));
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                System.err.println("PipelineMetrics: JFR events unavailable on this JVM (" + ex + ")");
+                return null;
+            }
+        }
+
+        @Override
+        public void stage(String name, long nanos, long rows, long bytes, long allocated) {
+            try {
+                Object e = newEvent.invoke(factory);
+                set.invoke(e, 0, name);
+                set.invoke(e, 1, nanos);
+                set.invoke(e, 2, rows);
+                set.invoke(e, 3, bytes);
+                set.invoke(e, 4, allocated);
+                commit.invoke(e);
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
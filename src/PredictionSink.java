@@ -0,0 +1,349 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+// Writes actual/predicted rows: numbers are formatted straight into a reused byte buffer, and full buffers go out
+// in 1 MB writes, optionally from a background thread so forecasting overlaps with I/O.
+// The format follows the file name: *.gz is gzip-compressed CSV, *.qosp is binary, anything else is CSV.
+// write() calls are serialised, so one sink can be shared by concurrent producers; each block stays contiguous.
+public abstract class PredictionSink implements Closeable {
+
+    static final int BUFFER = 1 << 20;
+    static final int ASYNC_DEPTH = 4;          // buffers in flight between the producer and the writer thread
+    public static final int DECIMALS = 6;      // -1 writes Double.toString, exact but allocating
+    static final long[] POW10 = new long[19];
+    static { POW10[0] = 1; for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10; }
+
+    final Output out;
+    ByteBuffer buf;
+    final byte[] digits = new byte[24];
+
+    PredictionSink(Output out) {
+        this.out = out;
+        this.buf = out.fresh();
+    }
+
+    public static PredictionSink open(String file, boolean async) throws IOException {
+        String lower = file.toLowerCase();
+        FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Output o = lower.endsWith(".gz")
+                ? new StreamOutput(new GZIPOutputStream(Channels.newOutputStream(ch), 1 << 16))
+                : new ChannelOutput(ch);
+        if (async) o = new AsyncOutput(o);
+        return lower.endsWith(".qosp") ? new Binary(o) : new Csv(o, DECIMALS);
+    }
+
+    // key names an optional leading column (e.g. "Cell"), null for none; metric names give <name>_actual, <name>_pred
+    public void header(String key, String[] names) throws IOException { header(key, names, new double[0]); }
+
+    // plus one <name>_q<percent> column per quantile band after each prediction (ForecastIntervals.label)
+    public abstract void header(String key, String[] names, double[] quantiles) throws IOException;
+
+    abstract void field(byte[] b, int off, int len) throws IOException;
+    abstract void value(double v) throws IOException;
+    abstract void endRow() throws IOException;
+
+    // every row of actual/pred (same length and width), time taken from actual
+    public void write(String key, QoSSeries actual, QoSSeries pred) throws IOException { write(key, actual, pred, null); }
+
+    // bands: one series per header quantile, same shape as pred; null or empty for none
+    public synchronized void write(String key, QoSSeries actual, QoSSeries pred, QoSSeries[] bands) throws IOException {
+        byte[] k = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+        int n = actual.width();
+        for (int t = 0; t < actual.length(); t++) {
+            if (k != null) field(k, 0, k.length);
+            int i = actual.offset() + t;
+            if (actual.hasTimes()) {
+                int from = i == 0 ? 0 : actual.timeEnd[i - 1];
+                field(actual.timeBytes, from, actual.timeEnd[i] - from);
+            } else {
+                field(digits, 0, putLong(digits, i));
+            }
+            for (int j = 0; j < n; j++) {
+                value(actual.get(t, j));
+                value(pred.get(t, j));
+                if (bands != null) for (QoSSeries b : bands) value(b.get(t, j));
+            }
+            endRow();
+        }
+    }
+
+    public synchronized void write(String key, String time, double[] actual, double[] pred) throws IOException {
+        if (key != null) {
+            byte[] k = key.getBytes(StandardCharsets.UTF_8);
+            field(k, 0, k.length);
+        }
+        byte[] tb = time.getBytes(StandardCharsets.UTF_8);
+        field(tb, 0, tb.length);
+        for (int j = 0; j < actual.length; j++) {
+            value(actual[j]);
+            value(pred[j]);
+        }
+        endRow();
+    }
+
+    ByteBuffer room(int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            buf.flip();
+            buf = out.submit(buf);
+        }
+        return buf;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            buf.flip();
+            if (buf.hasRemaining()) out.submit(buf);
+        } finally {
+            out.close();
+        }
+    }
+
+    // decimal digits of a non-negative value, most significant first; returns the count
+    static int putLong(byte[] dst, long v) {
+        int n = 0;
+        do {
+            dst[n++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = 0, j = n - 1; i < j; i++, j--) { byte x = dst[i]; dst[i] = dst[j]; dst[j] = x; }
+        return n;
+    }
+
+    static class Csv extends PredictionSink {
+        final int decimals;
+        boolean rowStart = true;
+
+        Csv(Output out, int decimals) {
+            super(out);
+            this.decimals = decimals;
+        }
+
+        @Override
+        public synchronized void header(String key, String[] names, double[] quantiles) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            if (key != null) sb.append(quote(key)).append(',');
+            sb.append("Time");
+            for (String n : names) {
+                sb.append(',').append(quote(n + "_actual")).append(',').append(quote(n + "_pred"));
+                for (double q : quantiles) sb.append(',').append(quote(n + '_' + ForecastIntervals.label(q)));
+            }
+            sb.append('\n');
+            byte[] b = sb.toString().getBytes(StandardCharsets.UTF_8);
+            room(b.length).put(b);
+        }
+
+        // keys and timestamps as read (QoSCsvReader accepts quoted ones), quoted again when they need it
+        @Override
+        void field(byte[] b, int off, int len) throws IOException {
+            if (!needsQuotes(b, off, len)) {
+                ByteBuffer o = room(len + 1);
+                if (!rowStart) o.put((byte) ',');
+                o.put(b, off, len);
+            } else {
+                ByteBuffer o = room(2 * len + 3);
+                if (!rowStart) o.put((byte) ',');
+                o.put((byte) '"');
+                for (int i = off; i < off + len; i++) {
+                    if (b[i] == '"') o.put((byte) '"');
+                    o.put(b[i]);
+                }
+                o.put((byte) '"');
+            }
+            rowStart = false;
+        }
+
+        // RFC 4180: a field holding a comma, a quote or a line break is enclosed in quotes, inner quotes doubled
+        static boolean needsQuotes(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                if (b[i] == ',' || b[i] == '"' || b[i] == '\r' || b[i] == '\n') return true;
+            return false;
+        }
+
+        static String quote(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            return needsQuotes(b, 0, b.length) ? '"' + s.replace("\"", "\"\"") + '"' : s;
+        }
+
+        // fixed-point with trailing zeros trimmed; out-of-range and non-finite values fall back to Double.toString
+        @Override
+        void value(double v) throws IOException {
+            ByteBuffer o = room(32);
+            if (!rowStart) o.put((byte) ',');
+            rowStart = false;
+            if (decimals < 0 || !(Math.abs(v) < 9e18 / POW10[decimals])) {
+                o.put(Double.toString(v).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            long scaled = Math.round(Math.abs(v) * POW10[decimals]);
+            if (scaled != 0 && v < 0) o.put((byte) '-');
+            long ip = scaled / POW10[decimals], fp = scaled % POW10[decimals];
+            o.put(digits, 0, putLong(digits, ip));
+            if (fp == 0) return;
+            int d = decimals;
+            while (fp % 10 == 0) { fp /= 10; d--; }
+            o.put((byte) '.');
+            int len = putLong(digits, fp);
+            for (int i = len; i < d; i++) o.put((byte) '0');
+            o.put(digits, 0, len);
+        }
+
+        @Override
+        void endRow() throws IOException {
+            room(1).put((byte) '\n');
+            rowStart = true;
+        }
+    }
+
+    // "QOSP" | version i32 | keyed i32 | metrics i32 | [version 2: bands i32 | quantile f64 x bands]
+    // | names (u16 length + UTF-8)... then per row: [key u16 + bytes] | time u16 + bytes
+    // | (actual f64, pred f64, band f64 x bands) x metrics, all little-endian. Version 1 (no bands) when there are none.
+    static class Binary extends PredictionSink {
+        static final int MAGIC = 0x50534f51;   // "QOSP" read little-endian
+
+        Binary(Output out) { super(out); }
+
+        @Override
+        public synchronized void header(String key, String[] names, double[] quantiles) throws IOException {
+            boolean banded = quantiles.length > 0;
+            room(16).putInt(MAGIC).putInt(banded ? 2 : 1).putInt(key != null ? 1 : 0).putInt(names.length);
+            if (banded) {
+                room(4).putInt(quantiles.length);
+                for (double q : quantiles) room(8).putDouble(q);
+            }
+            if (key != null) text(key);
+            text("Time");
+            for (String n : names) text(n);
+        }
+
+        void text(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            field(b, 0, b.length);
+        }
+
+        @Override
+        void field(byte[] b, int off, int len) throws IOException {
+            room(2 + len).putShort((short) len).put(b, off, len);
+        }
+
+        @Override
+        void value(double v) throws IOException {
+            room(8).putDouble(v);
+        }
+
+        @Override
+        void endRow() { }
+    }
+
+    // Where full buffers go. submit takes a flipped buffer and returns an empty one to keep filling.
+    abstract static class Output implements Closeable {
+        ByteBuffer fresh() { return ByteBuffer.allocate(BUFFER).order(ByteOrder.LITTLE_ENDIAN); }
+        abstract ByteBuffer submit(ByteBuffer full) throws IOException;
+    }
+
+    static final class ChannelOutput extends Output {
+        final FileChannel ch;
+
+        ChannelOutput(FileChannel ch) { this.ch = ch; }
+
+        @Override
+        ByteBuffer submit(ByteBuffer full) throws IOException {
+            while (full.hasRemaining()) ch.write(full);
+            full.clear();
+            return full;
+        }
+
+        @Override
+        public void close() throws IOException { ch.close(); }
+    }
+
+    static final class StreamOutput extends Output {
+        final OutputStream os;
+
+        StreamOutput(OutputStream os) { this.os = os; }
+
+        @Override
+        ByteBuffer submit(ByteBuffer full) throws IOException {
+            os.write(full.array(), full.arrayOffset() + full.position(), full.remaining());
+            full.clear();
+            return full;
+        }
+
+        @Override
+        public void close() throws IOException { os.close(); }
+    }
+
+    // Hands full buffers to a writer thread and recycles them; an I/O error there surfaces on the next submit or close.
+    static final class AsyncOutput extends Output {
+        static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+        final Output inner;
+        final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(ASYNC_DEPTH + 1);
+        final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(ASYNC_DEPTH);
+        final Thread writer;
+        volatile IOException failure;
+
+        AsyncOutput(Output inner) {
+            this.inner = inner;
+            for (int i = 1; i < ASYNC_DEPTH; i++) free.add(inner.fresh());
+            writer = new Thread(this::drain, "prediction-sink-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void drain() {
+            try {
+                while (true) {
+                    ByteBuffer b = full.take();
+                    if (b == EOF) return;
+                    try {
+                        if (failure == null) inner.submit(b);
+                    } catch (IOException ex) {
+                        failure = ex;
+                    }
+                    b.clear();
+                    free.put(b);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        ByteBuffer submit(ByteBuffer b) throws IOException {
+            if (failure != null) throw failure;
+            try {
+                full.put(b);
+                return free.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while queueing output", ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                full.put(EOF);
+                writer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inner.close();
+            }
+            if (failure != null) throw failure;
+        }
+    }
+}
@@ -4,72 +4,31 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.axis.NumberTickUnit;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 
 import javax.swing.*;
-import java.io.BufferedReader;
-import java.io.FileReader;
 
 public class QoSAllMetricsChart {
     public static void main(String[] args) {
-        String csvFile = "second.csv"; // change to your dataset
+        String csvFile = args.length > 0 ? args[0] : "second.csv"; // change to your dataset
 
-        // Create one series for each metric
-        XYSeries mosSeries = new XYSeries("MOS");
-        XYSeries bwSeries = new XYSeries("Bandwidth");
-        XYSeries rttSeries = new XYSeries("RTT");
-        XYSeries jitterSeries = new XYSeries("Jitter");
-        XYSeries bufferSeries = new XYSeries("Buffer");
-        XYSeries snrSeries = new XYSeries("SNR");
+        String[] keys = {"MOS", "Bandwidth", "RTT", "Jitter", "Buffer", "SNR"};
+        QoSSeries data = QoSSeries.allocate(keys, 0);
 
-        try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
-            String line;
-            int time = 0;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-
-                if (!values[0].equalsIgnoreCase("Time")) { // Skip header row
-                    double mos = Double.parseDouble(values[1]);
-                    double bw = Double.parseDouble(values[2]);
-                    double rtt = Double.parseDouble(values[3]);
-                    double jitter = Double.parseDouble(values[4]);
-                    double buffer = Double.parseDouble(values[5]);
-                    double snr = Double.parseDouble(values[6]);
-
-                    mosSeries.add(time, mos);
-                    bwSeries.add(time, bw);
-                    rttSeries.add(time, rtt);
-                    jitterSeries.add(time, jitter);
-                    bufferSeries.add(time, buffer);
-                    snrSeries.add(time, snr);
-
-                    time++;
-                }
-            }
+        try {
+            QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+            data = QoSCsvReader.load(csvFile, 1, 6, false, stats);
+            System.out.println(stats);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        // Add all series into dataset
-        XYSeriesCollection dataset = new XYSeriesCollection();
-        dataset.addSeries(mosSeries);
-        dataset.addSeries(bwSeries);
-        dataset.addSeries(rttSeries);
-        dataset.addSeries(jitterSeries);
-        dataset.addSeries(bufferSeries);
-        dataset.addSeries(snrSeries);
-
         // Create chart
-        JFreeChart chart = ChartFactory.createXYLineChart(
-                "QoS Metrics over Time",
-                "Time (s)",
-                "Values",
-                dataset
-        );
+        JFreeChart chart = create("QoS Metrics over Time", "Time (s)", "Values", data, keys);
 
         // ✅ Set axis scaling like in the paper
         XYPlot plot = chart.getXYPlot();
+        DownsampledXYDataset dataset = (DownsampledXYDataset) plot.getDataset();
 
         NumberAxis xAxis = (NumberAxis) plot.getDomainAxis();
         xAxis.setRange(0, 500); // X-axis: 0–500
@@ -78,6 +37,7 @@ public class QoSAllMetricsChart {
         NumberAxis yAxis = (NumberAxis) plot.getRangeAxis();
         yAxis.setRange(0, 400); // Y-axis: 0–400
         yAxis.setTickUnit(new NumberTickUnit(100)); // Tick every 100
+        dataset.follow(xAxis); // re-downsample on zoom and pan
 
         // Show chart
         JFrame frame = new JFrame("QoS Metrics Chart");
@@ -86,4 +46,14 @@ public class QoSAllMetricsChart {
         frame.pack();
         frame.setVisible(true);
     }
+
+    // one series for each column of data (keys name them), kept as primitive columns and downsampled; axes auto-scale
+    public static JFreeChart create(String title, String xLabel, String yLabel, QoSSeries data, String[] keys) {
+        DownsampledXYDataset dataset = new DownsampledXYDataset();
+        for (int j = 0; j < keys.length; j++) dataset.add(keys[j], null, data.column(j), data.offset(), data.length());
+        JFreeChart chart = ChartFactory.createXYLineChart(title, xLabel, yLabel, dataset);
+        ((NumberAxis) chart.getXYPlot().getRangeAxis()).setAutoRangeIncludesZero(false);
+        ((XYLineAndShapeRenderer) chart.getXYPlot().getRenderer()).setDrawSeriesLineAsPath(true); // one stroke per series
+        return chart;
+    }
 }
@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Columnar binary QoS file, all little-endian:
+//   "QOSB" | version i32 | flags i32 (FLOAT32, TIMES) | columns i32 | rows i64 | time bytes i64
+//   | per column: name length u16 + UTF-8 | pad to 8
+//   | [time end offsets i32 x rows | time bytes | pad to 8]
+//   | column 0 .. column n-1, each rows x f64 (or f32)
+// Readers map each section in SEGMENT-sized pieces, so only the int row count bounds a column; the time bytes stay
+// under 2 GB because their end offsets are i32.
+// Metric column c always corresponds to CSV column c+1; without times column 0 is an empty slot, so "all", firstCol and
+// 0-based indexes select the same metrics as they do on the CSV.
+public class QoSBinary {
+
+    static final int MAGIC = 0x42534f51;   // "QOSB" read little-endian
+    static final int VERSION = 1;
+    static final int FLOAT32 = 1, TIMES = 2;
+    static final int CHUNK = 1 << 20;
+    static final long SEGMENT = 1L << 30;   // bytes per mapping; a multiple of every element width
+
+    public static boolean isBinary(String file) {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (b.hasRemaining()) if (ch.read(b) < 0) return false;
+            return b.getInt(0) == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public static void write(QoSSeries s, String file, boolean asFloat) throws IOException {
+        int n = s.width(), rows = s.length(), off = s.offset();
+        boolean times = s.hasTimes();
+        int timeFrom = !times || off == 0 ? 0 : s.timeEnd[off - 1];
+        int timeLen = times && rows > 0 ? s.timeEnd[off + rows - 1] - timeFrom : 0;
+
+        try (Out out = new Out(FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))) {
+            ByteBuffer b = out.room(32);
+            b.putInt(MAGIC).putInt(VERSION).putInt((asFloat ? FLOAT32 : 0) | (times ? TIMES : 0)).putInt(n);
+            b.putLong(rows).putLong(timeLen);
+            for (int j = 0; j < n; j++) {
+                byte[] name = s.name(j).getBytes(StandardCharsets.UTF_8);
+                out.room(2 + name.length).putShort((short) name.length).put(name);
+            }
+            out.pad();
+            if (times) {
+                for (int t = 0; t < rows; t++) out.room(4).putInt(s.timeEnd[off + t] - timeFrom);
+                for (int i = timeFrom; i < timeFrom + timeLen; ) {
+                    int len = Math.min(out.room(1).remaining(), timeFrom + timeLen - i);
+                    out.b.put(s.timeBytes, i, len);
+                    i += len;
+                }
+                out.pad();
+            }
+            int width = asFloat ? 4 : 8;
+            for (int j = 0; j < n; j++) {
+                double[] c = s.column(j);
+                for (int t = 0; t < rows; ) {
+                    b = out.room(width);
+                    int len = Math.min(b.remaining() / width, rows - t);
+                    if (asFloat) {
+                        FloatBuffer fb = b.asFloatBuffer();
+                        for (int i = 0; i < len; i++) fb.put((float) c[off + t + i]);
+                    } else {
+                        b.asDoubleBuffer().put(c, off + t, len);
+                    }
+                    b.position(b.position() + len * width);
+                    t += len;
+                }
+            }
+        }
+    }
+
+    // buffered little-endian output that knows its file position, for the 8-byte section alignment
+    static final class Out implements AutoCloseable {
+        final FileChannel ch;
+        final ByteBuffer b = ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        long flushed;
+
+        Out(FileChannel ch) { this.ch = ch; }
+
+        ByteBuffer room(int bytes) throws IOException {
+            if (b.remaining() < bytes) flush();
+            return b;
+        }
+
+        void pad() throws IOException {
+            while (((flushed + b.position()) & 7) != 0) room(1).put((byte) 0);
+        }
+
+        void flush() throws IOException {
+            b.flip();
+            while (b.hasRemaining()) flushed += ch.write(b);
+            b.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    public static Mapped map(String file) throws IOException {
+        return new Mapped(file);
+    }
+
+    // Read-only mapping; columns are views straight onto the page cache, shared by every process mapping the file.
+    public static class Mapped {
+        final String[] names;
+        final int rows;
+        final boolean asFloat;
+        final Region timeEnd;
+        final ByteBuffer timeBytes;
+        final Region[] cols;
+        final long fileSize;
+
+        Mapped(String file) throws IOException {
+            try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+                fileSize = ch.size();
+                ByteBuffer h = ByteBuffer.allocate((int) Math.min(fileSize, 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+                while (h.hasRemaining() && ch.read(h) >= 0) { }
+                h.flip();
+                if (h.remaining() < 32 || h.getInt() != MAGIC) throw new IOException(file + ": not a QoS binary file");
+                int version = h.getInt();
+                if (version != VERSION) throw new IOException(file + ": unsupported version " + version);
+                int flags = h.getInt(), n = h.getInt();
+                long r = h.getLong(), timeLen = h.getLong();
+                int width = (flags & FLOAT32) != 0 ? 4 : 8;
+                if (r > Integer.MAX_VALUE) throw new IOException(file + ": " + r + " rows exceed the int row index");
+                if (timeLen > Integer.MAX_VALUE) throw new IOException(file + ": " + timeLen + " time bytes exceed the i32 offsets");
+                asFloat = width == 4;
+                rows = (int) r;
+                names = new String[n];
+                for (int j = 0; j < n; j++) {
+                    byte[] name = new byte[h.getShort() & 0xffff];
+                    h.get(name);
+                    names[j] = new String(name, StandardCharsets.UTF_8);
+                }
+                long pos = align(h.position());
+                if ((flags & TIMES) != 0) {
+                    timeEnd = new Region(ch, pos, 4L * rows);
+                    timeBytes = map(ch, pos + 4L * rows, timeLen);
+                    pos = align(pos + 4L * rows + timeLen);
+                } else {
+                    timeEnd = null;
+                    timeBytes = null;
+                }
+                cols = new Region[n];
+                for (int j = 0; j < n; j++, pos += (long) width * rows) cols[j] = new Region(ch, pos, (long) width * rows);
+            }
+        }
+
+        static ByteBuffer map(FileChannel ch, long pos, long len) throws IOException {
+            return ch.map(FileChannel.MapMode.READ_ONLY, pos, len).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        static long align(long p) { return (p + 7) & ~7L; }
+
+        public int rows() { return rows; }
+        public int width() { return names.length; }
+        public String name(int j) { return names[j]; }
+        public boolean hasTimes() { return timeEnd != null; }
+        public boolean isFloat() { return asFloat; }
+
+        // zero-copy view of a float64 column that fits one segment; larger columns are read through get or toSeries
+        public DoubleBuffer column(int j) {
+            if (asFloat) throw new IllegalStateException("float32 file; use floatColumn");
+            return cols[j].whole().asDoubleBuffer();
+        }
+
+        public FloatBuffer floatColumn(int j) {
+            if (!asFloat) throw new IllegalStateException("float64 file; use column");
+            return cols[j].whole().asFloatBuffer();
+        }
+
+        public double get(int t, int j) {
+            return asFloat ? cols[j].getFloat(4L * t) : cols[j].getDouble(8L * t);
+        }
+
+        public String time(int t) {
+            if (timeEnd == null) return Integer.toString(t);
+            int from = t == 0 ? 0 : timeEnd.getInt(4L * (t - 1)), to = timeEnd.getInt(4L * t);
+            byte[] b = new byte[to - from];
+            ((ByteBuffer) timeBytes.duplicate().position(from)).get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        // bulk copy of metric columns [first, first + nCols) onto the heap, for callers that difference/normalize in place
+        public QoSSeries toSeries(int first, int nCols, boolean keepTimes) {
+            return toSeries(QoSCsvReader.range(first, nCols), keepTimes);
+        }
+
+        // the given metric columns (0-based, any order)
+        public QoSSeries toSeries(int[] metrics, boolean keepTimes) {
+            String[] sel = new String[metrics.length];
+            for (int j = 0; j < metrics.length; j++) {
+                if (metrics[j] < 0 || metrics[j] >= names.length)
+                    throw new IllegalArgumentException("column " + metrics[j] + " of " + names.length);
+                sel[j] = names[metrics[j]];
+            }
+            QoSSeries s = QoSSeries.allocate(sel, rows);
+            for (int j = 0; j < metrics.length; j++) cols[metrics[j]].copy(s.column(j), asFloat);
+            if (keepTimes && timeEnd != null) {
+                s.timeEnd = new int[Math.max(rows, 1)];
+                timeEnd.copy(s.timeEnd);
+                s.timeBytes = new byte[timeBytes.capacity()];
+                timeBytes.duplicate().get(s.timeBytes);
+                s.timeBytesLen = s.timeBytes.length;
+            }
+            return s;
+        }
+    }
+
+    // One mapped section split into SEGMENT-sized buffers, since a single MappedByteBuffer stops at 2 GB.
+    // Segments start at multiples of SEGMENT from the section start, so no element straddles two of them.
+    static final class Region {
+        final ByteBuffer[] segs;
+
+        Region(FileChannel ch, long pos, long size) throws IOException {
+            segs = new ByteBuffer[(int) Math.max(1, (size + SEGMENT - 1) / SEGMENT)];
+            for (int i = 0; i < segs.length; i++) segs[i] = Mapped.map(ch, pos + i * SEGMENT, Math.min(SEGMENT, size - i * SEGMENT));
+        }
+
+        ByteBuffer whole() {
+            if (segs.length > 1) throw new IllegalStateException("column spans " + segs.length + " mappings; use get or toSeries");
+            return segs[0];
+        }
+
+        double getDouble(long at) { return segs[(int) (at / SEGMENT)].getDouble((int) (at % SEGMENT)); }
+        float getFloat(long at) { return segs[(int) (at / SEGMENT)].getFloat((int) (at % SEGMENT)); }
+        int getInt(long at) { return segs[(int) (at / SEGMENT)].getInt((int) (at % SEGMENT)); }
+
+        // bulk copy of the whole section onto the heap, one segment at a time
+        void copy(double[] dst, boolean asFloat) {
+            int t = 0;
+            for (ByteBuffer b : segs) {
+                if (asFloat) {
+                    FloatBuffer src = b.asFloatBuffer();
+                    for (int i = 0, len = src.remaining(); i < len; i++) dst[t++] = src.get(i);
+                } else {
+                    DoubleBuffer src = b.asDoubleBuffer();
+                    int len = src.remaining();
+                    src.get(dst, t, len);
+                    t += len;
+                }
+            }
+        }
+
+        void copy(int[] dst) {
+            int t = 0;
+            for (ByteBuffer b : segs) {
+                IntBuffer src = b.asIntBuffer();
+                int len = src.remaining();
+                src.get(dst, t, len);
+                t += len;
+            }
+        }
+    }
+
+    // column names in the original CSV layout: "Time" first, whether or not the file carries timestamps
+    static String[] header(String file) throws IOException {
+        Mapped m = map(file);
+        String[] h = new String[m.width() + 1];
+        h[0] = "Time";
+        System.arraycopy(m.names, 0, h, 1, m.width());
+        return h;
+    }
+
+    // same column selection as QoSCsvReader.load, with columns counted in the original CSV layout
+    static QoSSeries load(String file, int[] cols, boolean keepTimes, QoSCsvReader.Stats stats) throws IOException {
+        long start = System.nanoTime();
+        Mapped m = map(file);
+        int[] metrics = new int[cols.length];
+        for (int j = 0; j < cols.length; j++) {
+            metrics[j] = cols[j] - 1;
+            if (metrics[j] < 0) throw new IllegalArgumentException(file + ": column 0 holds the timestamps");
+        }
+        QoSSeries s = m.toSeries(metrics, keepTimes);
+        if (stats != null) {
+            stats.rows = s.length();
+            stats.bytes = m.fileSize;
+            stats.nanos = System.nanoTime() - start;
+        }
+        return s;
+    }
+
+    // Round trip of a small series with and without timestamps, as float64 and float32, read back with "all" the way
+    // the tools read a CSV; prints each case and returns false if any metric, name or timestamp differs.
+    static boolean check() throws IOException {
+        StringBuilder csv = new StringBuilder("Time,MOS,RTT,Jitter\n");
+        for (int t = 0; t < 1000; t++) csv.append("t").append(t).append(',').append(1 + t % 4 * 0.25).append(',').append(20 + t)
+                .append(',').append(t % 7 * 0.5).append('\n');
+        byte[] b = csv.toString().getBytes(StandardCharsets.UTF_8);
+        boolean ok = true;
+        for (boolean times : new boolean[] {true, false})
+            for (boolean asFloat : new boolean[] {false, true}) {
+                QoSSeries s = QoSCsvReader.parse(b, b.length, "all", times);
+                Path file = Files.createTempFile("qosb-check", ".qosb");
+                try {
+                    write(s, file.toString(), asFloat);
+                    QoSSeries r = QoSCsvReader.load(file.toString(), "all", true, null);
+                    boolean same = r.width() == s.width() && r.length() == s.length() && r.hasTimes() == times;
+                    for (int j = 0; same && j < s.width(); j++) same = r.name(j).equals(s.name(j));
+                    for (int t = 0; same && t < s.length(); t++) {
+                        for (int j = 0; j < s.width(); j++) same &= r.get(t, j) == (asFloat ? (float) s.get(t, j) : s.get(t, j));
+                        if (times) same &= r.time(t).equals(s.time(t));
+                    }
+                    System.out.printf("%-9s %-7s %d x %d -> %d x %d %s%n", times ? "times" : "no times", asFloat ? "float32" : "float64",
+                            s.length(), s.width(), r.length(), r.width(), same ? "ok" : "MISMATCH");
+                    ok &= same;
+                } finally {
+                    Files.delete(file);
+                }
+            }
+        return ok;
+    }
+
+    // One-time conversion: java QoSBinary <in.csv> <out.qosb> [float] [columns]; java QoSBinary --check runs check()
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("--check")) {
+            if (!check()) System.exit(1);
+            return;
+        }
+        if (args.length < 2) {
+            System.out.println("Usage: java QoSBinary <in.csv> <out.qosb> [float|double] [columns|all]");
+            System.out.println("       java QoSBinary --check");
+            return;
+        }
+        boolean asFloat = args.length > 2 && args[2].equalsIgnoreCase("float");
+        String columns = args.length > 3 ? args[3] : "all";
+        QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+        QoSSeries s = QoSCsvReader.load(args[0], columns, true, stats);
+        System.out.println(stats);
+        long t0 = System.nanoTime();
+        write(s, args[1], asFloat);
+        System.out.printf("Wrote %s (%d rows, %s) in %.3f s%n", args[1], s.length(), asFloat ? "float32" : "float64",
+                (System.nanoTime() - t0) / 1e9);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class QoSCsvReader {
+
+    static final int CHUNK = 1 << 20;
+    static final double[] POW10 = new double[23];
+    static { POW10[0] = 1.0; for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10.0; }
+
+    public static class Stats {
+        public long rows, bytes, nanos;
+
+        public double rowsPerSec() { return nanos == 0 ? 0 : rows * 1e9 / nanos; }
+        public double bytesPerRow() { return rows == 0 ? 0 : (double) bytes / rows; }
+
+        @Override
+        public String toString() {
+            return String.format("Loaded %d rows (%.1f MB) in %.3f s -> %.0f rows/s, %.1f bytes/row",
+                    rows, bytes / 1e6, nanos / 1e9, rowsPerSec(), bytesPerRow());
+        }
+    }
+
+    // Reads columns [firstCol, firstCol + nCols) of a headed CSV; column 0 is kept as the timestamp when keepTimes.
+    public static QoSSeries load(String filename, int firstCol, int nCols, boolean keepTimes, Stats stats) throws IOException {
+        return load(filename, range(firstCol, nCols), keepTimes, stats);
+    }
+
+    // Columns chosen by the header: "all" (or null) is every column after the timestamp, otherwise a comma-separated
+    // list of names and/or 0-based indexes, in the order wanted, e.g. "MOS,RTT,PacketLoss".
+    public static QoSSeries load(String filename, String columns, boolean keepTimes, Stats stats) throws IOException {
+        return load(filename, select(header(filename), columns), keepTimes, stats);
+    }
+
+    // Reads the given columns (any order) of a headed CSV; column 0 is kept as the timestamp when keepTimes and not selected.
+    // Files converted by QoSBinary are recognised by their magic number and mapped instead of parsed.
+    public static QoSSeries load(String filename, int[] cols, boolean keepTimes, Stats stats) throws IOException {
+        if (QoSBinary.isBinary(filename)) return QoSBinary.load(filename, cols, keepTimes, stats);
+        long start = System.nanoTime();
+        int[] slot = slots(cols);
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            byte[] buf = new byte[CHUNK];
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            double[] row = new double[cols.length];
+            QoSSeries s = null;
+            int filled = 0;
+            boolean eof = false, sized = false;
+            long consumed = 0;
+
+            while (!eof || filled > 0) {
+                if (!eof) {
+                    if (filled == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                        bb = ByteBuffer.wrap(buf);
+                    }
+                    bb.limit(buf.length).position(filled);
+                    int n = ch.read(bb);
+                    if (n < 0) eof = true; else filled += n;
+                }
+                int pos = 0;
+                while (true) {
+                    int nl = indexOf(buf, pos, filled, (byte) '\n');
+                    if (nl < 0) {
+                        if (!eof || pos == filled) break;
+                        nl = filled;
+                    }
+                    int end = nl;
+                    if (end > pos && buf[end - 1] == '\r') end--;
+                    if (s == null) {
+                        s = new QoSSeries(names(fields(buf, pos, end), cols), 1024, keepTimes && slot[0] < 0);
+                    } else if (end > pos) {
+                        parseRow(s, buf, pos, end, slot, row);
+                    }
+                    pos = Math.min(nl + 1, filled);
+                    if (nl == filled) break;
+                }
+                consumed += pos;
+                if (!sized && s != null && s.length > 0) {
+                    sized = true;
+                    s.ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, (long) (fileSize / ((double) consumed / s.length) * 1.02) + 16));
+                }
+                System.arraycopy(buf, pos, buf, 0, filled - pos);
+                filled -= pos;
+            }
+            if (s == null) s = new QoSSeries(names(new String[0], cols), 16, false);
+            s.trimToSize();
+            if (stats != null) {
+                stats.rows = s.length;
+                stats.bytes = fileSize;
+                stats.nanos = System.nanoTime() - start;
+            }
+            return s;
+        }
+    }
+
+    // the same layout held in memory (header line first, columns as in load), e.g. an HTTP request body
+    public static QoSSeries parse(byte[] b, int len, String columns, boolean keepTimes) {
+        int nl = indexOf(b, 0, len, (byte) '\n');
+        if (nl < 0) nl = len;
+        int end = nl > 0 && b[nl - 1] == '\r' ? nl - 1 : nl;
+        String[] header = fields(b, 0, end);
+        int[] cols = select(header, columns), slot = slots(cols);
+        double[] row = new double[cols.length];
+        QoSSeries s = new QoSSeries(names(header, cols), 64, keepTimes && slot[0] < 0);
+        for (int pos = nl + 1; pos < len; ) {
+            nl = indexOf(b, pos, len, (byte) '\n');
+            if (nl < 0) nl = len;
+            end = nl;
+            if (end > pos && b[end - 1] == '\r') end--;
+            if (end > pos) parseRow(s, b, pos, end, slot, row);
+            pos = nl + 1;
+        }
+        s.trimToSize();
+        return s;
+    }
+
+    // column names of a CSV (first line) or of a QoSBinary file, in CSV layout
+    public static String[] header(String filename) throws IOException {
+        if (QoSBinary.isBinary(filename)) return QoSBinary.header(filename);
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            byte[] buf = new byte[1 << 16];
+            int filled = 0, nl;
+            while ((nl = indexOf(buf, 0, filled, (byte) '\n')) < 0) {
+                if (filled == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                int n = ch.read(ByteBuffer.wrap(buf, filled, buf.length - filled));
+                if (n < 0) break;
+                filled += n;
+            }
+            int end = nl < 0 ? filled : nl;
+            if (end > 0 && buf[end - 1] == '\r') end--;
+            return fields(buf, 0, end);
+        }
+    }
+
+    public static int[] select(String[] header, String columns) {
+        if (columns == null || columns.trim().isEmpty() || columns.trim().equalsIgnoreCase("all"))
+            return range(1, Math.max(0, header.length - 1));
+        String[] want = columns.split(",");
+        int[] cols = new int[want.length];
+        boolean[] seen = new boolean[header.length];
+        for (int k = 0; k < want.length; k++) {
+            String w = want[k].trim();
+            int c = -1;
+            for (int j = 0; j < header.length && c < 0; j++) if (header[j].equals(w)) c = j;
+            for (int j = 0; j < header.length && c < 0; j++) if (header[j].equalsIgnoreCase(w)) c = j;
+            if (c < 0 && !w.isEmpty() && w.chars().allMatch(Character::isDigit)) c = Integer.parseInt(w);
+            if (c < 0 || c >= header.length) throw new IllegalArgumentException("no column '" + w + "' in " + Arrays.toString(header));
+            if (seen[c]) throw new IllegalArgumentException("column '" + w + "' selected twice");
+            seen[c] = true;
+            cols[k] = c;
+        }
+        return cols;
+    }
+
+    static int[] range(int first, int n) {
+        int[] cols = new int[n];
+        for (int j = 0; j < n; j++) cols[j] = first + j;
+        return cols;
+    }
+
+    // slot[field] = position of that CSV field in the row, -1 when not selected; always covers field 0
+    static int[] slots(int[] cols) {
+        int max = 0;
+        for (int c : cols) max = Math.max(max, c);
+        int[] slot = new int[max + 1];
+        Arrays.fill(slot, -1);
+        for (int k = 0; k < cols.length; k++) slot[cols[k]] = k;
+        return slot;
+    }
+
+    static int indexOf(byte[] b, int from, int to, byte v) {
+        for (int i = from; i < to; i++) if (b[i] == v) return i;
+        return -1;
+    }
+
+    static void parseRow(QoSSeries s, byte[] b, int from, int to, int[] slot, double[] row) {
+        int nCols = row.length;
+        boolean keepTimes = s.timeEnd != null;
+        s.ensureCapacity(s.length + 1);
+        int field = 0, pos = from, got = 0;
+        while (pos <= to && field < slot.length) {
+            int fs = pos, fe;
+            if (pos < to && b[pos] == '"') {
+                int q = indexOf(b, pos + 1, to, (byte) '"');
+                if (q < 0) q = to;
+                fe = indexOf(b, q, to, (byte) ',');
+                if (fe < 0) fe = to;
+            } else {
+                fe = indexOf(b, pos, to, (byte) ',');
+                if (fe < 0) fe = to;
+            }
+            if (field == 0 && keepTimes) {
+                int ts = fs, te = fe;
+                if (te - ts >= 2 && b[ts] == '"' && b[te - 1] == '"') { ts++; te--; }
+                s.appendTime(b, ts, te);
+            }
+            int k = slot[field];
+            if (k >= 0) {
+                row[k] = parseDouble(b, fs, fe);
+                got++;
+            }
+            field++;
+            pos = fe + 1;
+        }
+        if (got < nCols) {
+            if (keepTimes) s.rollbackTime();
+            return;
+        }
+        int t = s.length++;
+        for (int j = 0; j < nCols; j++) s.cols[j][t] = row[j];
+    }
+
+    static String[] fields(byte[] b, int from, int to) {
+        String[] fields = new String(b, from, to - from, StandardCharsets.UTF_8).split(",", -1);
+        for (int j = 0; j < fields.length; j++) {
+            String f = fields[j].trim();
+            if (f.length() >= 2 && f.startsWith("\"") && f.endsWith("\"")) f = f.substring(1, f.length() - 1);
+            if (f.startsWith("\uFEFF")) f = f.substring(1);
+            fields[j] = f;
+        }
+        return fields;
+    }
+
+    // header names of the selected columns; missing or empty ones become V<column>
+    static String[] names(String[] header, int[] cols) {
+        String[] names = new String[cols.length];
+        for (int j = 0; j < cols.length; j++)
+            names[j] = cols[j] < header.length && !header[cols[j]].isEmpty() ? header[cols[j]] : "V" + cols[j];
+        return names;
+    }
+
+    // Exact for up to 15-16 significant digits and |exponent| <= 22; anything else goes through Double.parseDouble.
+    static double parseDouble(byte[] b, int s, int e) {
+        while (s < e && b[s] <= ' ') s++;
+        while (e > s && b[e - 1] <= ' ') e--;
+        if (e - s >= 2 && b[s] == '"' && b[e - 1] == '"') { s++; e--; }
+        int i = s;
+        boolean neg = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) neg = b[i++] == '-';
+        long mant = 0;
+        int digits = 0, exp10 = 0;
+        boolean any = false;
+        while (i < e && b[i] >= '0' && b[i] <= '9') {
+            if (digits < 18) { mant = mant * 10 + (b[i] - '0'); if (mant != 0) digits++; } else exp10++;
+            i++; any = true;
+        }
+        if (i < e && b[i] == '.') {
+            i++;
+            while (i < e && b[i] >= '0' && b[i] <= '9') {
+                if (digits < 18) { mant = mant * 10 + (b[i] - '0'); if (mant != 0) digits++; exp10--; }
+                i++; any = true;
+            }
+        }
+        if (any && i < e && (b[i] == 'e' || b[i] == 'E')) {
+            int j = i + 1, ex = 0;
+            boolean eneg = false;
+            if (j < e && (b[j] == '-' || b[j] == '+')) eneg = b[j++] == '-';
+            if (j == e) return slowParse(b, s, e);
+            while (j < e && b[j] >= '0' && b[j] <= '9' && ex < 100000) ex = ex * 10 + (b[j++] - '0');
+            exp10 += eneg ? -ex : ex;
+            i = j;
+        }
+        if (!any || i != e) return slowParse(b, s, e);
+        if (mant == 0) return neg ? -0.0 : 0.0;
+        if (mant < (1L << 53) && exp10 >= -22 && exp10 <= 22) {
+            double v = exp10 < 0 ? mant / POW10[-exp10] : mant * POW10[exp10];
+            return neg ? -v : v;
+        }
+        return slowParse(b, s, e);
+    }
+
+    static double slowParse(byte[] b, int s, int e) {
+        return Double.parseDouble(new String(b, s, e - s, StandardCharsets.ISO_8859_1));
+    }
+}
@@ -4,43 +4,31 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.axis.NumberTickUnit;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 
 import javax.swing.*;
-import java.io.BufferedReader;
-import java.io.FileReader;
 
 public class QoSLineChart {
     public static void main(String[] args) {
-        String csvFile = "first.csv"; // change to your dataset
-        XYSeries series = new XYSeries("MOS");
-
-        try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
-            String line;
-            int time = 0;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-                if (!values[0].equalsIgnoreCase("Time")) { // skip header
-                    double mos = Double.parseDouble(values[1]); // assuming MOS in 2nd column
-                    series.add(time, mos);
-                    time++;
-                }
-            }
+        String csvFile = args.length > 0 ? args[0] : "first.csv"; // change to your dataset
+        double[] mos = new double[0];
+        int n = 0;
+
+        try {
+            QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+            QoSSeries data = QoSCsvReader.load(csvFile, 1, 1, false, stats); // assuming MOS in 2nd column
+            System.out.println(stats);
+            mos = data.column(0);
+            n = data.length();
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        XYSeriesCollection dataset = new XYSeriesCollection(series);
-        JFreeChart chart = ChartFactory.createXYLineChart(
-                "MOS over Time",
-                "Time (s)",
-                "MOS",
-                dataset
-        );
+        JFreeChart chart = create("MOS over Time", "Time (s)", "MOS", "MOS", mos, 0, n);
 
         // ✅ Set axis ranges like in paper
         XYPlot plot = chart.getXYPlot();
+        DownsampledXYDataset dataset = (DownsampledXYDataset) plot.getDataset();
 
         NumberAxis xAxis = (NumberAxis) plot.getDomainAxis();
         xAxis.setRange(0, 500); // X-axis: 0–500
@@ -49,6 +37,7 @@ public class QoSLineChart {
         NumberAxis yAxis = (NumberAxis) plot.getRangeAxis();
         yAxis.setRange(0, 400); // Y-axis: 0–400
         yAxis.setTickUnit(new NumberTickUnit(100)); // tick spacing: 100
+        dataset.follow(xAxis); // re-downsample on zoom and pan
 
         JFrame frame = new JFrame("Line Chart Example");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -56,4 +45,14 @@ public class QoSLineChart {
         frame.pack();
         frame.setVisible(true);
     }
+
+    // y[off..off+n) against the row index; the raw column stays a primitive array and the chart only ever sees a
+    // downsampled view. Both axes auto-scale (zero is not forced into the value axis).
+    public static JFreeChart create(String title, String xLabel, String yLabel, String key, double[] y, int off, int n) {
+        DownsampledXYDataset dataset = new DownsampledXYDataset().add(key, null, y, off, n);
+        JFreeChart chart = ChartFactory.createXYLineChart(title, xLabel, yLabel, dataset);
+        ((NumberAxis) chart.getXYPlot().getRangeAxis()).setAutoRangeIncludesZero(false);
+        ((XYLineAndShapeRenderer) chart.getXYPlot().getRenderer()).setDrawSeriesLineAsPath(true); // one stroke per series
+        return chart;
+    }
 }
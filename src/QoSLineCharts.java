@@ -1,53 +1,27 @@
-import com.opencsv.CSVReader;
-import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 import javax.swing.*;
-import java.io.FileReader;
-import java.util.*;
 
 public class QoSLineCharts {
     public static void main(String[] args) throws Exception {
-        String csvFile = "first.csv"; // replace with Mario sir’s dataset
-        CSVReader reader = new CSVReader(new FileReader(csvFile));
-
-        List<Double> mos = new ArrayList<>();
-        List<Double> bandwidth = new ArrayList<>();
-        List<Double> rtt = new ArrayList<>();
-        List<Double> jitter = new ArrayList<>();
-        List<Double> buffer = new ArrayList<>();
-        List<Double> snr = new ArrayList<>();
-
-        String[] nextLine;
-        reader.readNext(); // skip header
-        while ((nextLine = reader.readNext()) != null) {
-            mos.add(Double.parseDouble(nextLine[0]));
-            bandwidth.add(Double.parseDouble(nextLine[1]));
-            rtt.add(Double.parseDouble(nextLine[2]));
-            jitter.add(Double.parseDouble(nextLine[3]));
-            buffer.add(Double.parseDouble(nextLine[4]));
-            snr.add(Double.parseDouble(nextLine[5]));
-        }
-        reader.close();
+        String csvFile = args.length > 0 ? args[0] : "first.csv"; // replace with Mario sir’s dataset
+        QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+        QoSSeries data = QoSCsvReader.load(csvFile, 0, 6, false, stats);
+        System.out.println(stats);
+        int n = data.length();
 
         // Create charts for all 6 variables
-        createChart(mos, "MOS over Time", "Time", "MOS");
-        createChart(bandwidth, "Bandwidth over Time", "Time", "kb/s");
-        createChart(rtt, "RTT over Time", "Time", "ms");
-        createChart(jitter, "Jitter over Time", "Time", "ms");
-        createChart(buffer, "Buffer over Time", "Time", "ms");
-        createChart(snr, "SNR over Time", "Time", "dB");
+        createChart(data.column(0), n, "MOS over Time", "Time", "MOS");
+        createChart(data.column(1), n, "Bandwidth over Time", "Time", "kb/s");
+        createChart(data.column(2), n, "RTT over Time", "Time", "ms");
+        createChart(data.column(3), n, "Jitter over Time", "Time", "ms");
+        createChart(data.column(4), n, "Buffer over Time", "Time", "ms");
+        createChart(data.column(5), n, "SNR over Time", "Time", "dB");
     }
 
-    private static void createChart(List<Double> data, String title, String xLabel, String yLabel) {
-        XYSeries series = new XYSeries(title);
-        for (int i = 0; i < data.size(); i++) {
-            series.add(i, data.get(i));
-        }
-        XYSeriesCollection dataset = new XYSeriesCollection(series);
-        JFreeChart chart = ChartFactory.createXYLineChart(title, xLabel, yLabel, dataset);
+    private static void createChart(double[] data, int n, String title, String xLabel, String yLabel) {
+        JFreeChart chart = QoSLineChart.create(title, xLabel, yLabel, title, data, 0, n);
+        ((DownsampledXYDataset) chart.getXYPlot().getDataset()).follow(chart.getXYPlot().getDomainAxis());
 
         JFrame frame = new JFrame(title);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -0,0 +1,124 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class QoSSeries {
+
+    final String[] names;
+    double[][] cols;
+    int start;
+    int length;
+
+    // timestamps kept as raw bytes in one arena; row t spans [timeEnd[t-1], timeEnd[t])
+    byte[] timeBytes;
+    int[] timeEnd;
+    int timeBytesLen;
+
+    public QoSSeries(String[] names, int capacity, boolean keepTimes) {
+        this.names = names;
+        capacity = Math.max(capacity, 16);
+        this.cols = new double[names.length][capacity];
+        if (keepTimes) {
+            this.timeEnd = new int[capacity];
+            this.timeBytes = new byte[capacity * 8];
+        }
+    }
+
+    public static QoSSeries allocate(String[] names, int length) {
+        QoSSeries s = new QoSSeries(names, length, false);
+        s.length = length;
+        return s;
+    }
+
+    public int length() { return length; }
+    public int offset() { return start; }
+    public int width() { return names.length; }
+    public String name(int j) { return names[j]; }
+    public String[] names() { return names.clone(); }
+    public boolean hasTimes() { return timeEnd != null; }
+
+    public double get(int t, int j) { return cols[j][start + t]; }
+    public void set(int t, int j, double v) { cols[j][start + t] = v; }
+
+    // backing array of column j; row t lives at column(j)[offset() + t]
+    public double[] column(int j) { return cols[j]; }
+
+    public String time(int t) {
+        int i = start + t;
+        if (timeEnd == null || t < 0 || t >= length) return Integer.toString(i);
+        int from = i == 0 ? 0 : timeEnd[i - 1];
+        return new String(timeBytes, from, timeEnd[i] - from, StandardCharsets.UTF_8);
+    }
+
+    // zero-copy view of rows [from, to); writes through to this series
+    public QoSSeries slice(int from, int to) {
+        if (from < 0 || to > length || from > to) throw new IndexOutOfBoundsException(from + ".." + to + " of " + length);
+        QoSSeries v = new QoSSeries(this);
+        v.start = start + from;
+        v.length = to - from;
+        return v;
+    }
+
+    // detached copy of the visible rows (no timestamps), for transforms that must leave this series as it is
+    public QoSSeries copy() {
+        QoSSeries s = allocate(names, length);
+        for (int j = 0; j < names.length; j++) System.arraycopy(cols[j], start, s.cols[j], 0, length);
+        return s;
+    }
+
+    // first difference of the given columns in place; every column loses its first row
+    public void difference(int... js) {
+        for (int j : js) {
+            double[] c = cols[j];
+            for (int i = start + length - 1; i > start; i--) c[i] -= c[i - 1];
+        }
+        start++;
+        length--;
+    }
+
+    private QoSSeries(QoSSeries src) {
+        this.names = src.names;
+        this.cols = src.cols;
+        this.timeBytes = src.timeBytes;
+        this.timeEnd = src.timeEnd;
+        this.timeBytesLen = src.timeBytesLen;
+    }
+
+    void ensureCapacity(int rows) {
+        int cap = cols[0].length;
+        if (rows <= cap) return;
+        int newCap = Math.max(rows, cap + (cap >> 1));
+        for (int j = 0; j < cols.length; j++) cols[j] = Arrays.copyOf(cols[j], newCap);
+        if (timeEnd != null) timeEnd = Arrays.copyOf(timeEnd, newCap);
+    }
+
+    void appendTime(byte[] src, int from, int to) {
+        int len = to - from;
+        if (timeBytesLen + len > timeBytes.length)
+            timeBytes = Arrays.copyOf(timeBytes, Math.max(timeBytesLen + len, timeBytes.length + (timeBytes.length >> 1)));
+        System.arraycopy(src, from, timeBytes, timeBytesLen, len);
+        timeBytesLen += len;
+        timeEnd[length] = timeBytesLen;
+    }
+
+    void rollbackTime() {
+        timeBytesLen = length == 0 ? 0 : timeEnd[length - 1];
+    }
+
+    void trimToSize() {
+        int end = start + length;
+        for (int j = 0; j < cols.length; j++) if (cols[j].length != end) cols[j] = Arrays.copyOf(cols[j], end);
+        if (timeEnd != null) {
+            timeEnd = Arrays.copyOf(timeEnd, end);
+            timeBytes = Arrays.copyOf(timeBytes, timeBytesLen);
+        }
+    }
+
+    public double[][] toRows() {
+        double[][] rows = new double[length][cols.length];
+        for (int j = 0; j < cols.length; j++) {
+            double[] c = cols[j];
+            for (int t = 0; t < length; t++) rows[t][j] = c[start + t];
+        }
+        return rows;
+    }
+}
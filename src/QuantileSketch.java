@@ -0,0 +1,170 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// KLL quantile sketch: a stack of compactors where level h holds items of weight 2^h. A full level is sorted and
+// every other item (odd or even positions, alternately) moves up one level, so about 3k items are retained for any
+// stream length and the rank error is roughly 1.7/k. Sketches of disjoint streams merge level by level, in any order.
+public final class QuantileSketch {
+
+    public static final int DEFAULT_K = 512;
+
+    final int k;
+    double[][] items = new double[1][];
+    int[] size = new int[1];
+    int levels = 1;
+    long n;
+    boolean flip;   // which half of a compacted level moves up
+
+    public QuantileSketch() { this(DEFAULT_K); }
+
+    public QuantileSketch(int k) {
+        if (k < 8) throw new IllegalArgumentException("k must be >= 8: " + k);
+        this.k = k;
+        items[0] = new double[k];
+    }
+
+    public long count() { return n; }
+
+    public void add(double v) {
+        if (Double.isNaN(v)) return;
+        push(0, v);
+        n++;
+        if (size[0] >= capacity(0)) compress();
+    }
+
+    public void add(double[] v, int from, int to) {
+        for (int i = from; i < to; i++) add(v[i]);
+    }
+
+    // folds other (left unchanged) into this sketch
+    public QuantileSketch merge(QuantileSketch other) {
+        for (int h = 0; h < other.levels; h++)
+            for (int i = 0; i < other.size[h]; i++) push(h, other.items[h][i]);
+        n += other.n;
+        compress();
+        return this;
+    }
+
+    // value at normalized rank q in [0, 1] (NaN when empty): a weighted walk over the sorted levels
+    public double quantile(double q) {
+        double[][] sorted = new double[levels][];
+        for (int h = 0; h < levels; h++) {
+            sorted[h] = Arrays.copyOf(items[h], size[h]);
+            Arrays.sort(sorted[h]);
+        }
+        int[] pos = new int[levels];
+        double target = q * n, last = Double.NaN;
+        long cum = 0;
+        while (true) {
+            int best = -1;
+            for (int h = 0; h < levels; h++)
+                if (pos[h] < sorted[h].length && (best < 0 || sorted[h][pos[h]] < sorted[best][pos[best]])) best = h;
+            if (best < 0) return last;
+            last = sorted[best][pos[best]++];
+            cum += 1L << best;
+            if (cum > target) return last;
+        }
+    }
+
+    // largest retained value <= x (NaN when none); with exact tails this only matters deep inside the distribution
+    public double floor(double x) {
+        double best = Double.NaN;
+        for (int h = 0; h < levels; h++)
+            for (int j = 0; j < size[h]; j++) {
+                double v = items[h][j];
+                if (v <= x && !(v <= best)) best = v;
+            }
+        return best;
+    }
+
+    public double ceiling(double x) {
+        double best = Double.NaN;
+        for (int h = 0; h < levels; h++)
+            for (int j = 0; j < size[h]; j++) {
+                double v = items[h][j];
+                if (v >= x && !(v >= best)) best = v;
+            }
+        return best;
+    }
+
+    // capacity shrinks by 2/3 per level below the top, never under 2
+    int capacity(int h) {
+        return Math.max(2, (int) Math.ceil(k * Math.pow(2.0 / 3.0, levels - 1 - h)));
+    }
+
+    void push(int h, double v) {
+        while (h >= levels) grow();   // a merged-in sketch may be several levels deeper
+        if (size[h] == items[h].length) items[h] = Arrays.copyOf(items[h], Math.max(4, 2 * size[h]));
+        items[h][size[h]++] = v;
+    }
+
+    void grow() {
+        items = Arrays.copyOf(items, levels + 1);
+        size = Arrays.copyOf(size, levels + 1);
+        items[levels] = new double[Math.max(4, capacity(levels - 1))];
+        levels++;
+    }
+
+    // compacts from the bottom while any level is over capacity
+    void compress() {
+        for (int h = 0; h < levels; h++) {
+            if (size[h] < capacity(h)) continue;
+            double[] a = items[h];
+            int m = size[h] & ~1;   // an odd item stays behind
+            Arrays.sort(a, 0, size[h]);
+            int keep = size[h] - m;
+            if (keep == 1) {
+                double last = a[size[h] - 1];
+                promote(h, a, m);
+                a[0] = last;
+            } else {
+                promote(h, a, m);
+            }
+            size[h] = keep;
+        }
+    }
+
+    void promote(int h, double[] a, int m) {
+        int start = flip ? 1 : 0;
+        flip = !flip;
+        for (int i = start; i < m; i += 2) push(h + 1, a[i]);
+    }
+
+    // Self-check: java QuantileSketch [k] merges sketches of unequal size in both directions and compares the
+    // quartiles with the exact ones; exits with status 1 when a rank error exceeds 3/k.
+    public static void main(String[] args) {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int[] sizes = {7, 1000, 100000};
+        Random rnd = new Random(42);
+        double[][] data = new double[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            data[i] = new double[sizes[i]];
+            for (int t = 0; t < sizes[i]; t++) data[i][t] = rnd.nextGaussian() * (i + 1) + i;
+        }
+        double worst = 0;
+        for (int a = 0; a < sizes.length; a++)
+            for (int b = 0; b < sizes.length; b++) {
+                if (a == b) continue;
+                QuantileSketch x = new QuantileSketch(k), y = new QuantileSketch(k);
+                x.add(data[a], 0, sizes[a]);
+                y.add(data[b], 0, sizes[b]);
+                x.merge(y);
+                double[] all = Arrays.copyOf(data[a], sizes[a] + sizes[b]);
+                System.arraycopy(data[b], 0, all, sizes[a], sizes[b]);
+                Arrays.sort(all);
+                StringBuilder sb = new StringBuilder(String.format("%6d <- %-6d n=%d levels=%d", sizes[a], sizes[b], x.count(), x.levels));
+                for (double q : new double[] {0.25, 0.5, 0.75}) {
+                    double v = x.quantile(q);
+                    int lo = 0, hi = 0;
+                    while (lo < all.length && all[lo] < v) lo++;
+                    for (hi = lo; hi < all.length && all[hi] <= v; hi++) { }
+                    double err = Math.max(0, Math.max((double) lo / all.length - q, q - (double) hi / all.length));
+                    worst = Math.max(worst, err);
+                    sb.append(String.format("  q%.2f rank error %.4f", q, err));
+                }
+                System.out.println(sb);
+            }
+        System.out.printf("worst rank error %.4f (bound %.4f)%n", worst, 3.0 / k);
+        if (worst > 3.0 / k) System.exit(1);
+    }
+}
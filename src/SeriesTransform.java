@@ -0,0 +1,420 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Invertible per-column preprocessing, fitted on training rows only and streamed chunk by chunk: fit() gathers a
+// stage's statistics in one pass (Welford for the z-score), apply() transforms a chunk in place continuing from the
+// previous one, and invert() maps forecasts that follow the last applied row back to the input scale, exactly.
+// Stages compose with Chain (usually log -> difference -> z-score); a snapshot stores the fitted parameters together
+// with the stream position, so forecasts from it integrate back to levels.
+public abstract class SeriesTransform {
+
+    // statistics of this stage's input; call for every training chunk before applying
+    public void fit(QoSSeries chunk) { }
+
+    // forward in place, continuing the stream; returns the transformed rows (differencing drops the stream's first)
+    public abstract QoSSeries apply(QoSSeries chunk);
+
+    // one forecast row (this stage's output scale, row[off..off+n)) following the stream, back to the input scale in
+    // place; the stream advances as if the inverted row had been applied, so consecutive calls walk a forecast path
+    public abstract void invert(double[] row, int off);
+
+    public void invert(QoSSeries s) {
+        int n = s.width(), off = s.offset();
+        double[] row = new double[n];
+        for (int t = 0; t < s.length(); t++) {
+            for (int j = 0; j < n; j++) row[j] = s.column(j)[off + t];
+            invert(row, 0);
+            for (int j = 0; j < n; j++) s.column(j)[off + t] = row[j];
+        }
+    }
+
+    // fitted parameters and stream position
+    public abstract SeriesTransform copy();
+
+    // fitted parameters, stream not yet started: for replaying on fresh raw rows
+    public SeriesTransform fresh() { return copy(); }
+
+    // an affine map of the forecast path (its errors go through impulse())
+    public boolean linear() { return true; }
+
+    // each value inverted on its own (monotone), so quantiles map like points
+    public boolean pointwise() { return true; }
+
+    // gathers statistics in fit()
+    boolean fitted() { return false; }
+
+    // VMA coefficients of this stage's output (Phi_i, n x n per horizon, left as they are) as coefficients of its input
+    public double[][][] impulse(double[][][] phi) {
+        throw new UnsupportedOperationException(this + " is not linear");
+    }
+
+    public SeriesTransform[] stages() { return new SeriesTransform[]{this}; }
+
+    abstract void write(DataOutput out) throws IOException;
+
+    public static SeriesTransform read(DataInput in, int n) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case 'C': {
+                SeriesTransform[] s = new SeriesTransform[in.readInt()];
+                for (int k = 0; k < s.length; k++) s[k] = read(in, n);
+                return new Chain(s);
+            }
+            case 'D': {
+                int[] order = new int[n];
+                for (int j = 0; j < n; j++) order[j] = in.readInt();
+                Difference d = new Difference(order);
+                d.seen = in.readLong();
+                for (double[] row : d.prev) for (int j = 0; j < n; j++) row[j] = in.readDouble();
+                return d;
+            }
+            case 'Z': {
+                ZScore z = new ZScore(n);
+                z.count = in.readLong();
+                for (int j = 0; j < n; j++) {
+                    z.mean[j] = in.readDouble();
+                    z.m2[j] = in.readDouble();
+                }
+                return z;
+            }
+            case 'L':
+                return new Log(n, in.readDouble());
+            default:
+                throw new IOException("unknown transform tag " + tag);
+        }
+    }
+
+    // runs data through t in place, `chunk` rows at a time; the transformed rows end where data ends
+    public static QoSSeries apply(SeriesTransform t, QoSSeries data, int chunk) {
+        int kept = 0;
+        for (int from = 0; from < data.length(); from += chunk)
+            kept += t.apply(data.slice(from, Math.min(data.length(), from + chunk))).length();
+        return data.slice(data.length() - kept, data.length());
+    }
+
+    public static void fit(SeriesTransform t, QoSSeries data, int chunk) {
+        for (int from = 0; from < data.length(); from += chunk) t.fit(data.slice(from, Math.min(data.length(), from + chunk)));
+    }
+
+    static double[][][] copyOf(double[][][] phi) {
+        double[][][] out = new double[phi.length][][];
+        for (int i = 0; i < phi.length; i++) {
+            out[i] = new double[phi[i].length][];
+            for (int r = 0; r < phi[i].length; r++) out[i][r] = phi[i][r].clone();
+        }
+        return out;
+    }
+
+    // Stages applied first to last and inverted last to first. Stages with statistics must come last: fit() runs each
+    // chunk through scratch copies of the earlier stages (their own stream, apart from apply's), so one pass fits the
+    // whole chain as long as the stages it passes through need no statistics themselves.
+    public static final class Chain extends SeriesTransform {
+        final SeriesTransform[] stages;
+        SeriesTransform[] fitting;
+
+        public Chain(SeriesTransform... stages) { this.stages = stages.clone(); }
+
+        @Override
+        public void fit(QoSSeries chunk) {
+            if (fitting == null) {
+                fitting = new SeriesTransform[stages.length];
+                for (int k = 0; k < stages.length; k++) fitting[k] = stages[k].fresh();
+            }
+            QoSSeries c = stages.length > 1 ? chunk.copy() : chunk;
+            for (int k = 0; k < stages.length && c.length() > 0; k++) {
+                stages[k].fit(c);
+                if (k + 1 == stages.length) break;
+                if (stages[k].fitted()) throw new IllegalStateException(stages[k] + " gathers statistics and must be the last stage");
+                c = fitting[k].apply(c);
+            }
+        }
+
+        public QoSSeries apply(QoSSeries chunk) {
+            for (SeriesTransform s : stages) chunk = s.apply(chunk);
+            return chunk;
+        }
+
+        public void invert(double[] row, int off) {
+            for (int k = stages.length - 1; k >= 0; k--) stages[k].invert(row, off);
+        }
+
+        public SeriesTransform copy() {
+            SeriesTransform[] s = new SeriesTransform[stages.length];
+            for (int k = 0; k < s.length; k++) s[k] = stages[k].copy();
+            return new Chain(s);
+        }
+
+        @Override
+        public SeriesTransform fresh() {
+            SeriesTransform[] s = new SeriesTransform[stages.length];
+            for (int k = 0; k < s.length; k++) s[k] = stages[k].fresh();
+            return new Chain(s);
+        }
+
+        @Override
+        public boolean linear() {
+            for (SeriesTransform s : stages) if (!s.linear()) return false;
+            return true;
+        }
+
+        @Override
+        public boolean pointwise() {
+            for (SeriesTransform s : stages) if (!s.pointwise()) return false;
+            return true;
+        }
+
+        @Override
+        boolean fitted() {
+            for (SeriesTransform s : stages) if (s.fitted()) return true;
+            return false;
+        }
+
+        @Override
+        public double[][][] impulse(double[][][] phi) {
+            for (int k = stages.length - 1; k >= 0; k--) phi = stages[k].impulse(phi);
+            return phi;
+        }
+
+        @Override
+        public SeriesTransform[] stages() { return stages.clone(); }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte('C');
+            out.writeInt(stages.length);
+            for (SeriesTransform s : stages) s.write(out);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (SeriesTransform s : stages) sb.append(sb.length() == 0 ? "" : " -> ").append(s);
+            return sb.length() == 0 ? "none" : sb.toString();
+        }
+    }
+
+    // The rounds of VARPipelineFull.differenceToStationary: round r differences every column whose order exceeds r,
+    // and each round drops the stream's first row from all columns. prev[r] holds the last input of round r, which
+    // is both what the next chunk differences against and the level a forecast is integrated from.
+    public static final class Difference extends SeriesTransform {
+        final int[] order;
+        final double[][] prev;
+        long seen;   // rows applied (or inverted) so far
+
+        public Difference(int[] order) {
+            this.order = order.clone();
+            int rounds = 0;
+            for (int d : order) rounds = Math.max(rounds, d);
+            this.prev = new double[rounds][order.length];
+        }
+
+        public int[] order() { return order.clone(); }
+
+        public QoSSeries apply(QoSSeries chunk) {
+            int rows = chunk.length();
+            for (int r = 0; r < prev.length && chunk.length() > 0; r++) {
+                int off = chunk.offset(), L = chunk.length();
+                boolean started = seen > r;
+                for (int j = 0; j < order.length; j++) {
+                    double[] c = chunk.column(j);
+                    double last = c[off + L - 1];
+                    if (order[j] > r) {
+                        for (int i = off + L - 1; i > off; i--) c[i] -= c[i - 1];
+                        if (started) c[off] -= prev[r][j];
+                    }
+                    prev[r][j] = last;
+                }
+                if (!started) chunk = chunk.slice(1, L);
+            }
+            seen += rows;
+            return chunk;
+        }
+
+        // integrates from the last applied levels; before the stream has filled every round there is nothing to
+        // integrate from and the row stays differenced
+        public void invert(double[] row, int off) {
+            if (seen < prev.length) return;
+            for (int r = prev.length - 1; r >= 0; r--)
+                for (int j = 0; j < order.length; j++) {
+                    if (order[j] > r) row[off + j] += prev[r][j];
+                    prev[r][j] = row[off + j];
+                }
+            seen++;
+        }
+
+        public SeriesTransform copy() {
+            Difference d = new Difference(order);
+            for (int r = 0; r < prev.length; r++) d.prev[r] = prev[r].clone();
+            d.seen = seen;
+            return d;
+        }
+
+        @Override
+        public SeriesTransform fresh() { return new Difference(order); }
+
+        @Override
+        public boolean pointwise() { return false; }
+
+        // the h-step error of a d-times integrated column sums its differenced errors: running sums of its Phi rows
+        @Override
+        public double[][][] impulse(double[][][] phi) {
+            double[][][] out = copyOf(phi);
+            if (seen < prev.length) return out;
+            for (int j = 0; j < order.length; j++)
+                for (int k = 0; k < order[j]; k++)
+                    for (int i = 1; i < out.length; i++)
+                        for (int c = 0; c < out[i][j].length; c++) out[i][j][c] += out[i - 1][j][c];
+            return out;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte('D');
+            for (int o : order) out.writeInt(o);
+            out.writeLong(seen);
+            for (double[] row : prev) for (double v : row) out.writeDouble(v);
+        }
+
+        @Override
+        public String toString() { return "difference" + Arrays.toString(order); }
+    }
+
+    // (x - mean) / std per column, std the population one (1 for a constant column). Mean and sum of squared
+    // deviations are updated one value at a time (Welford), so chunks of any size give the statistics of their union.
+    public static final class ZScore extends SeriesTransform {
+        final double[] mean, m2;
+        long count;
+
+        public ZScore(int n) {
+            mean = new double[n];
+            m2 = new double[n];
+        }
+
+        // from a mean and std per column
+        static ZScore of(double[][] meansStd) {
+            ZScore z = new ZScore(meansStd.length);
+            z.count = 1;
+            for (int j = 0; j < meansStd.length; j++) {
+                z.mean[j] = meansStd[j][0];
+                z.m2[j] = meansStd[j][1] * meansStd[j][1];
+            }
+            return z;
+        }
+
+        @Override
+        public void fit(QoSSeries chunk) {
+            int off = chunk.offset(), L = chunk.length();
+            for (int j = 0; j < mean.length; j++) {
+                double[] c = chunk.column(j);
+                double mu = mean[j], s = m2[j];
+                long k = count;
+                for (int t = off; t < off + L; t++) {
+                    double d = c[t] - mu;
+                    mu += d / ++k;
+                    s += d * (c[t] - mu);
+                }
+                mean[j] = mu;
+                m2[j] = s;
+            }
+            count += L;
+        }
+
+        public double mean(int j) { return mean[j]; }
+
+        public double std(int j) {
+            double s = count > 0 ? Math.sqrt(m2[j] / count) : 0;
+            return s == 0 ? 1.0 : s;
+        }
+
+        public QoSSeries apply(QoSSeries chunk) {
+            if (count == 0) throw new IllegalStateException("z-score applied before fit");
+            int off = chunk.offset(), L = chunk.length();
+            for (int j = 0; j < mean.length; j++) {
+                double[] c = chunk.column(j);
+                double mu = mean[j], std = std(j);
+                for (int t = off; t < off + L; t++) c[t] = (c[t] - mu) / std;
+            }
+            return chunk;
+        }
+
+        public void invert(double[] row, int off) {
+            for (int j = 0; j < mean.length; j++) row[off + j] = row[off + j] * std(j) + mean[j];
+        }
+
+        public SeriesTransform copy() {
+            ZScore z = new ZScore(mean.length);
+            System.arraycopy(mean, 0, z.mean, 0, mean.length);
+            System.arraycopy(m2, 0, z.m2, 0, m2.length);
+            z.count = count;
+            return z;
+        }
+
+        @Override
+        boolean fitted() { return true; }
+
+        @Override
+        public double[][][] impulse(double[][][] phi) {
+            double[][][] out = copyOf(phi);
+            for (double[][] P : out)
+                for (int j = 0; j < mean.length; j++) {
+                    double std = std(j);
+                    for (int c = 0; c < P[j].length; c++) P[j][c] *= std;
+                }
+            return out;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte('Z');
+            out.writeLong(count);
+            for (int j = 0; j < mean.length; j++) {
+                out.writeDouble(mean[j]);
+                out.writeDouble(m2[j]);
+            }
+        }
+
+        @Override
+        public String toString() { return "zscore"; }
+    }
+
+    // log(x + shift); shift 1 keeps zero counts finite. Not linear, so it goes first and bands map through exp.
+    public static final class Log extends SeriesTransform {
+        final int n;
+        final double shift;
+
+        public Log(int n, double shift) {
+            this.n = n;
+            this.shift = shift;
+        }
+
+        public QoSSeries apply(QoSSeries chunk) {
+            int off = chunk.offset(), L = chunk.length();
+            for (int j = 0; j < chunk.width(); j++) {
+                double[] c = chunk.column(j);
+                for (int t = off; t < off + L; t++) {
+                    double v = c[t] + shift;
+                    if (!(v > 0)) throw new IllegalArgumentException(chunk.name(j) + ": log of " + v + " at row " + (t - off)
+                            + " (raise the shift above " + shift + ")");
+                    c[t] = Math.log(v);
+                }
+            }
+            return chunk;
+        }
+
+        public void invert(double[] row, int off) {
+            for (int j = off; j < off + n; j++) row[j] = Math.exp(row[j]) - shift;
+        }
+
+        public SeriesTransform copy() { return new Log(n, shift); }
+
+        @Override
+        public boolean linear() { return false; }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte('L');
+            out.writeDouble(shift);
+        }
+
+        @Override
+        public String toString() { return "log(x+" + shift + ")"; }
+    }
+}
@@ -0,0 +1,396 @@
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.Map;
+
+// Just enough Graphics2D to turn a JFreeChart into SVG text: shapes, basic strokes, solid colours with alpha,
+// clipping and text. Shapes are written in device coordinates (the current transform applied) with two decimals;
+// text keeps its transform as a matrix so rotated axis labels stay selectable text. Gradients use their first colour
+// and images are skipped, neither of which the report charts use. Font metrics come from a per-thread raster graphics.
+//   StringBuilder sb = new StringBuilder();
+//   SvgGraphics2D g = new SvgGraphics2D(sb, w, h);
+//   chart.draw(g, new Rectangle2D.Double(0, 0, w, h));
+//   g.finish();
+public final class SvgGraphics2D extends Graphics2D {
+
+    static final ThreadLocal<Graphics2D> METRICS = ThreadLocal.withInitial(() -> {
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        return g;
+    });
+
+    final StringBuilder out;
+    final int[] clipIds;   // shared with every create()d copy so ids stay unique in the document
+    AffineTransform transform = new AffineTransform();
+    Shape clip;            // device coordinates, null when unclipped
+    String clipRef;        // id of the emitted clipPath for the current clip
+    Paint paint = Color.BLACK;
+    Color background = Color.WHITE;
+    Stroke stroke = new BasicStroke(1f);
+    Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+    Composite composite = AlphaComposite.SrcOver;
+    RenderingHints hints = new RenderingHints(null);
+
+    public SvgGraphics2D(StringBuilder out, int width, int height) {
+        this.out = out;
+        this.clipIds = new int[1];
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"")
+                .append(width).append("\" height=\"").append(height).append("\" viewBox=\"0 0 ").append(width).append(' ')
+                .append(height).append("\">\n");
+    }
+
+    SvgGraphics2D(SvgGraphics2D g) {
+        out = g.out;
+        clipIds = g.clipIds;
+        transform = new AffineTransform(g.transform);
+        clip = g.clip;
+        clipRef = g.clipRef;
+        paint = g.paint;
+        background = g.background;
+        stroke = g.stroke;
+        font = g.font;
+        composite = g.composite;
+        hints = (RenderingHints) g.hints.clone();
+    }
+
+    // closes the document; returns the builder passed to the constructor
+    public StringBuilder finish() { return out.append("</svg>\n"); }
+
+    @Override
+    public void draw(Shape s) {
+        if (!(stroke instanceof BasicStroke)) {
+            fill(stroke.createStrokedShape(s));
+            return;
+        }
+        BasicStroke bs = (BasicStroke) stroke;
+        double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+        defineClip();
+        out.append("<path d=\"");
+        path(transform.createTransformedShape(s));
+        out.append("\" fill=\"none\"");
+        colour("stroke");
+        out.append(" stroke-width=\"");
+        num(bs.getLineWidth() * scale);
+        out.append('"');
+        if (bs.getEndCap() != BasicStroke.CAP_BUTT) out.append(bs.getEndCap() == BasicStroke.CAP_ROUND ? " stroke-linecap=\"round\"" : " stroke-linecap=\"square\"");
+        if (bs.getLineJoin() != BasicStroke.JOIN_MITER) out.append(bs.getLineJoin() == BasicStroke.JOIN_ROUND ? " stroke-linejoin=\"round\"" : " stroke-linejoin=\"bevel\"");
+        float[] dash = bs.getDashArray();
+        if (dash != null && dash.length > 0) {
+            out.append(" stroke-dasharray=\"");
+            for (int i = 0; i < dash.length; i++) {
+                if (i > 0) out.append(',');
+                num(dash[i] * scale);
+            }
+            out.append('"');
+        }
+        clipAttr();
+        out.append("/>\n");
+    }
+
+    @Override
+    public void fill(Shape s) {
+        defineClip();
+        out.append("<path d=\"");
+        path(transform.createTransformedShape(s));
+        out.append('"');
+        colour("fill");
+        clipAttr();
+        out.append("/>\n");
+    }
+
+    @Override
+    public void drawString(String str, float x, float y) {
+        if (str == null || str.isEmpty()) return;
+        defineClip();
+        out.append("<text");
+        if (transform.getType() == AffineTransform.TYPE_IDENTITY || transform.getType() == AffineTransform.TYPE_TRANSLATION) {
+            out.append(" x=\"");
+            num(x + transform.getTranslateX());
+            out.append("\" y=\"");
+            num(y + transform.getTranslateY());
+            out.append('"');
+        } else {
+            out.append(" x=\"");
+            num(x);
+            out.append("\" y=\"");
+            num(y);
+            out.append("\" transform=\"matrix(");
+            num(transform.getScaleX());
+            out.append(' ');
+            num(transform.getShearY());
+            out.append(' ');
+            num(transform.getShearX());
+            out.append(' ');
+            num(transform.getScaleY());
+            out.append(' ');
+            num(transform.getTranslateX());
+            out.append(' ');
+            num(transform.getTranslateY());
+            out.append(")\"");
+        }
+        out.append(" font-family=\"").append(family(font)).append("\" font-size=\"");
+        num(font.getSize2D());
+        out.append('"');
+        if (font.isBold()) out.append(" font-weight=\"bold\"");
+        if (font.isItalic()) out.append(" font-style=\"italic\"");
+        colour("fill");
+        clipAttr();
+        out.append('>');
+        escape(str);
+        out.append("</text>\n");
+    }
+
+    @Override public void drawString(String str, int x, int y) { drawString(str, (float) x, (float) y); }
+
+    @Override
+    public void drawString(AttributedCharacterIterator it, float x, float y) {
+        StringBuilder sb = new StringBuilder();
+        for (char c = it.first(); c != AttributedCharacterIterator.DONE; c = it.next()) sb.append(c);
+        drawString(sb.toString(), x, y);
+    }
+
+    @Override public void drawString(AttributedCharacterIterator it, int x, int y) { drawString(it, (float) x, (float) y); }
+    @Override public void drawGlyphVector(GlyphVector g, float x, float y) { fill(g.getOutline(x, y)); }
+
+    void path(Shape s) {
+        double[] c = new double[6];
+        for (PathIterator it = s.getPathIterator(null); !it.isDone(); it.next()) {
+            switch (it.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO: out.append('M'); pts(c, 1); break;
+                case PathIterator.SEG_LINETO: out.append('L'); pts(c, 1); break;
+                case PathIterator.SEG_QUADTO: out.append('Q'); pts(c, 2); break;
+                case PathIterator.SEG_CUBICTO: out.append('C'); pts(c, 3); break;
+                default: out.append('Z');
+            }
+        }
+    }
+
+    void pts(double[] c, int n) {
+        for (int i = 0; i < 2 * n; i++) {
+            if (i > 0) out.append(' ');
+            num(c[i]);
+        }
+    }
+
+    // two decimals without String.format: paths dominate the output and there are many of them
+    void num(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            out.append('0');
+            return;
+        }
+        long r = Math.round(v * 100);
+        if (r < 0) {
+            out.append('-');
+            r = -r;
+        }
+        out.append(r / 100);
+        int frac = (int) (r % 100);
+        if (frac != 0) {
+            out.append('.').append(frac / 10);
+            if (frac % 10 != 0) out.append(frac % 10);
+        }
+    }
+
+    void colour(String attr) {
+        Color c = paint instanceof Color ? (Color) paint : paint instanceof GradientPaint ? ((GradientPaint) paint).getColor1() : Color.GRAY;
+        out.append(' ').append(attr).append("=\"rgb(").append(c.getRed()).append(',').append(c.getGreen()).append(',')
+                .append(c.getBlue()).append(")\"");
+        double alpha = c.getAlpha() / 255.0;
+        if (composite instanceof AlphaComposite) alpha *= ((AlphaComposite) composite).getAlpha();
+        if (alpha < 1) {
+            out.append(' ').append(attr).append("-opacity=\"");
+            num(alpha);
+            out.append('"');
+        }
+    }
+
+    // a clipPath is written once per clip, ahead of the first element that uses it
+    void defineClip() {
+        if (clip == null || clipRef != null) return;
+        clipRef = "c" + clipIds[0]++;
+        out.append("<clipPath id=\"").append(clipRef).append("\"><path d=\"");
+        path(clip);
+        out.append("\"/></clipPath>\n");
+    }
+
+    void clipAttr() {
+        if (clip != null) out.append(" clip-path=\"url(#").append(clipRef).append(")\"");
+    }
+
+    void escape(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '&': out.append("&amp;"); break;
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '"': out.append("&quot;"); break;
+                default: out.append(ch);
+            }
+        }
+    }
+
+    static String family(Font f) {
+        String name = f.getFamily();
+        if (name.equals(Font.SERIF)) return "serif";
+        if (name.equals(Font.MONOSPACED)) return "monospace";
+        if (name.equals(Font.SANS_SERIF) || name.equals(Font.DIALOG) || name.equals(Font.DIALOG_INPUT)) return "sans-serif";
+        return name.replace("\"", "");
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        if (onStroke) s = stroke.createStrokedShape(s);
+        return transform.createTransformedShape(s).intersects(rect);
+    }
+
+    @Override public GraphicsConfiguration getDeviceConfiguration() { return METRICS.get().getDeviceConfiguration(); }
+    @Override public FontRenderContext getFontRenderContext() { return METRICS.get().getFontRenderContext(); }
+    @Override public FontMetrics getFontMetrics(Font f) { return METRICS.get().getFontMetrics(f); }
+
+    @Override public void setComposite(Composite comp) { composite = comp; }
+    @Override public Composite getComposite() { return composite; }
+    @Override public void setPaint(Paint p) { if (p != null) paint = p; }
+    @Override public Paint getPaint() { return paint; }
+    @Override public void setColor(Color c) { if (c != null) paint = c; }
+    @Override public Color getColor() { return paint instanceof Color ? (Color) paint : Color.GRAY; }
+    @Override public void setStroke(Stroke s) { if (s != null) stroke = s; }
+    @Override public Stroke getStroke() { return stroke; }
+    @Override public void setBackground(Color c) { background = c; }
+    @Override public Color getBackground() { return background; }
+    @Override public Font getFont() { return font; }
+    @Override public void setFont(Font f) { if (f != null) font = f; }
+    @Override public void setPaintMode() { }
+    @Override public void setXORMode(Color c) { }
+
+    @Override public void setRenderingHint(RenderingHints.Key key, Object value) { hints.put(key, value); }
+    @Override public Object getRenderingHint(RenderingHints.Key key) { return hints.get(key); }
+    @Override public void setRenderingHints(Map<?, ?> m) { hints.clear(); hints.putAll(m); }
+    @Override public void addRenderingHints(Map<?, ?> m) { hints.putAll(m); }
+    @Override public RenderingHints getRenderingHints() { return (RenderingHints) hints.clone(); }
+
+    @Override public void translate(int x, int y) { transform.translate(x, y); }
+    @Override public void translate(double tx, double ty) { transform.translate(tx, ty); }
+    @Override public void rotate(double theta) { transform.rotate(theta); }
+    @Override public void rotate(double theta, double x, double y) { transform.rotate(theta, x, y); }
+    @Override public void scale(double sx, double sy) { transform.scale(sx, sy); }
+    @Override public void shear(double shx, double shy) { transform.shear(shx, shy); }
+    @Override public void transform(AffineTransform t) { transform.concatenate(t); }
+    @Override public void setTransform(AffineTransform t) { transform = new AffineTransform(t); }
+    @Override public AffineTransform getTransform() { return new AffineTransform(transform); }
+
+    @Override
+    public void clip(Shape s) {
+        if (s == null) return;
+        Shape device = transform.createTransformedShape(s);
+        if (clip == null) {
+            clip = device;
+        } else {
+            Area a = new Area(clip);
+            a.intersect(new Area(device));
+            clip = a;
+        }
+        clipRef = null;
+    }
+
+    @Override
+    public void setClip(Shape s) {
+        clip = s == null ? null : transform.createTransformedShape(s);
+        clipRef = null;
+    }
+
+    @Override
+    public Shape getClip() {
+        if (clip == null) return null;
+        try {
+            return transform.createInverse().createTransformedShape(clip);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+        Shape c = getClip();
+        return c == null ? null : c.getBounds();
+    }
+
+    @Override public void clipRect(int x, int y, int w, int h) { clip(new Rectangle(x, y, w, h)); }
+    @Override public void setClip(int x, int y, int w, int h) { setClip(new Rectangle(x, y, w, h)); }
+
+    @Override public Graphics create() { return new SvgGraphics2D(this); }
+    @Override public void dispose() { }
+    @Override public void copyArea(int x, int y, int w, int h, int dx, int dy) { }
+
+    @Override public void drawLine(int x1, int y1, int x2, int y2) { draw(new Line2D.Double(x1, y1, x2, y2)); }
+    @Override public void fillRect(int x, int y, int w, int h) { fill(new Rectangle(x, y, w, h)); }
+
+    @Override
+    public void clearRect(int x, int y, int w, int h) {
+        Paint saved = paint;
+        paint = background;
+        fill(new Rectangle(x, y, w, h));
+        paint = saved;
+    }
+
+    @Override public void drawRoundRect(int x, int y, int w, int h, int aw, int ah) { draw(new RoundRectangle2D.Double(x, y, w, h, aw, ah)); }
+    @Override public void fillRoundRect(int x, int y, int w, int h, int aw, int ah) { fill(new RoundRectangle2D.Double(x, y, w, h, aw, ah)); }
+    @Override public void drawOval(int x, int y, int w, int h) { draw(new Ellipse2D.Double(x, y, w, h)); }
+    @Override public void fillOval(int x, int y, int w, int h) { fill(new Ellipse2D.Double(x, y, w, h)); }
+    @Override public void drawArc(int x, int y, int w, int h, int start, int extent) { draw(new Arc2D.Double(x, y, w, h, start, extent, Arc2D.OPEN)); }
+    @Override public void fillArc(int x, int y, int w, int h, int start, int extent) { fill(new Arc2D.Double(x, y, w, h, start, extent, Arc2D.PIE)); }
+    @Override public void drawPolygon(int[] xs, int[] ys, int n) { draw(new Polygon(xs, ys, n)); }
+    @Override public void fillPolygon(int[] xs, int[] ys, int n) { fill(new Polygon(xs, ys, n)); }
+
+    @Override
+    public void drawPolyline(int[] xs, int[] ys, int n) {
+        if (n < 1) return;
+        Path2D.Double p = new Path2D.Double();
+        p.moveTo(xs[0], ys[0]);
+        for (int i = 1; i < n; i++) p.lineTo(xs[i], ys[i]);
+        draw(p);
+    }
+
+    // images are not embedded
+    @Override public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) { return true; }
+    @Override public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) { }
+    @Override public void drawRenderedImage(RenderedImage img, AffineTransform xform) { }
+    @Override public void drawRenderableImage(RenderableImage img, AffineTransform xform) { }
+    @Override public boolean drawImage(Image img, int x, int y, ImageObserver o) { return true; }
+    @Override public boolean drawImage(Image img, int x, int y, int w, int h, ImageObserver o) { return true; }
+    @Override public boolean drawImage(Image img, int x, int y, Color bg, ImageObserver o) { return true; }
+    @Override public boolean drawImage(Image img, int x, int y, int w, int h, Color bg, ImageObserver o) { return true; }
+    @Override public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver o) { return true; }
+    @Override public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bg, ImageObserver o) { return true; }
+}
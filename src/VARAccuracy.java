@@ -1,5 +1,3 @@
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
 import java.io.*;
 import java.util.*;
 
@@ -7,26 +5,28 @@ public class VARAccuracy {
 
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
-            System.out.println("Usage: java VARAccuracy <csv_file>");
+            System.out.println("Usage: java VARAccuracy <csv_file> [columns|all]");
             return;
         }
 
         String csvFile = args[0];
-        List<String> times = new ArrayList<>();
-        double[][] data = loadCSV(csvFile, times);
+        QoSSeries series = loadCSV(csvFile, args.length > 1 ? args[1] : "all");
+        double[][] data = series.toRows();
 
         int trainSize = 700;
-        int nVars = 6;
+        int nVars = series.width();
 
         double[][] train = Arrays.copyOfRange(data, 0, trainSize);
         double[][] test = Arrays.copyOfRange(data, trainSize, data.length);
 
         double[][] A1 = new double[nVars][nVars];
         double[] c = new double[nVars];
-        estimateVAR1(train, A1, c);
+        estimateVAR1(series.slice(0, trainSize), A1, c);
 
         double[][] predictions = new double[test.length][nVars];
         double[] last = train[trainSize - 1];
+        ForecastErrors errors = new ForecastErrors(series.names(), VARPipelineFull.EVAL_HORIZONS,
+                ForecastErrors.naiveScale(series.slice(0, trainSize)));
 
         for (int t = 0; t < test.length; t++) {
             double[] pred = new double[nVars];
@@ -37,69 +37,41 @@ public class VARAccuracy {
                 }
             }
             predictions[t] = pred;
+            errors.add(t, test[t], 0, pred, 0);
             last = pred;
         }
 
-        computeMetrics(test, predictions);
-        saveResults(times, trainSize, test, predictions, "VAR_predictions.csv");
+        errors.print(System.out);
+        errors.write(new File("VAR_errors.csv").toPath());
+        saveResults(series, trainSize, test, predictions, "VAR_predictions.csv");
     }
 
-    public static double[][] loadCSV(String filename, List<String> times) throws Exception {
-        List<double[]> values = new ArrayList<>();
-        try (CSVReader reader = new CSVReader(new FileReader(filename))) {
-            String[] line;
-            boolean firstLine = true;
-            while ((line = reader.readNext()) != null) {
-                if (firstLine) { firstLine = false; continue; }
-                times.add(line[0]);
-                double[] row = new double[6];
-                for (int i = 0; i < 6; i++) {
-                    row[i] = Double.parseDouble(line[i+1].trim());
-                }
-                values.add(row);
-            }
-        }
-        return values.toArray(new double[0][0]);
+    public static QoSSeries loadCSV(String filename, String columns) throws Exception {
+        QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+        QoSSeries series = QoSCsvReader.load(filename, columns, true, stats);
+        System.out.println(stats);
+        return series;
     }
 
-    public static void estimateVAR1(double[][] train, double[][] A1, double[] c) {
-        int T = train.length;
-        int k = train[0].length;
-        double[][] X = new double[T-1][k+1];
-        double[][] Y = new double[T-1][k];
-
-        for (int t = 1; t < T; t++) {
-            X[t-1][0] = 1.0;
-            for (int j = 0; j < k; j++) X[t-1][j+1] = train[t-1][j];
-            for (int i = 0; i < k; i++) Y[t-1][i] = train[t][i];
-        }
+    // X'X and X'Y come from one (parallel) pass over the columns; each equation then only needs its own solve
+    public static void estimateVAR1(QoSSeries train, double[][] A1, double[] c) {
+        int k = train.width();
+        VARGram g = VARGram.compute(train, 1);
+        double[][] XtX = g.xtx(1), XtY = g.xty(1);
 
         for (int i = 0; i < k; i++) {
-            double[] coef = ols(X, Y, i);
+            double[][] A = new double[k + 1][];
+            double[] b = new double[k + 1];
+            for (int r = 0; r <= k; r++) {
+                A[r] = XtX[r].clone();
+                b[r] = XtY[r][i];
+            }
+            double[] coef = gaussianElimination(A, b);
             c[i] = coef[0];
             for (int j = 0; j < k; j++) A1[i][j] = coef[j+1];
         }
     }
 
-    public static double[] ols(double[][] X, double[][] Y, int col) {
-        int T = X.length;
-        int k = X[0].length;
-        double[][] XtX = new double[k][k];
-        double[] XtY = new double[k];
-
-        for (int i = 0; i < k; i++) {
-            for (int j = 0; j < k; j++) {
-                double sum = 0;
-                for (int t = 0; t < T; t++) sum += X[t][i] * X[t][j];
-                XtX[i][j] = sum;
-            }
-            double sum2 = 0;
-            for (int t = 0; t < T; t++) sum2 += X[t][i] * Y[t][col];
-            XtY[i] = sum2;
-        }
-        return gaussianElimination(XtX, XtY);
-    }
-
     public static double[] gaussianElimination(double[][] A, double[] b) {
         int n = b.length;
         double[] x = new double[n];
@@ -124,37 +96,10 @@ public class VARAccuracy {
         return x;
     }
 
-    public static void computeMetrics(double[][] actual, double[][] pred) {
-        int nVars = actual[0].length;
-        int nRows = actual.length;
-
-        for (int i = 0; i < nVars; i++) {
-            double sumAbs = 0, sumSq = 0;
-            for (int t = 0; t < nRows; t++) {
-                double err = actual[t][i] - pred[t][i];
-                sumAbs += Math.abs(err);
-                sumSq += err*err;
-            }
-            double mae = sumAbs / nRows;
-            double rmse = Math.sqrt(sumSq / nRows);
-            System.out.printf("Variable %d -> MAE: %.4f, RMSE: %.4f%n", i+1, mae, rmse);
-        }
-    }
-
-    public static void saveResults(List<String> times, int trainSize, double[][] actual, double[][] pred, String outFile) throws Exception {
-        try (CSVWriter writer = new CSVWriter(new FileWriter(outFile))) {
-            String[] header = {"Time","MOS_actual","MOS_pred","BW_actual","BW_pred","JIT_actual","JIT_pred","RTT_actual","RTT_pred","DJB_actual","DJB_pred","SNR_actual","SNR_pred"};
-            writer.writeNext(header);
-
-            for (int t = 0; t < actual.length; t++) {
-                String[] row = new String[13];
-                row[0] = times.get(trainSize + t);
-                for (int i = 0; i < 6; i++) {
-                    row[1 + i*2] = String.valueOf(actual[t][i]);
-                    row[2 + i*2] = String.valueOf(pred[t][i]);
-                }
-                writer.writeNext(row);
-            }
+    public static void saveResults(QoSSeries times, int trainSize, double[][] actual, double[][] pred, String outFile) throws Exception {
+        try (PredictionSink sink = PredictionSink.open(outFile, false)) {
+            sink.header(null, times.names());
+            for (int t = 0; t < actual.length; t++) sink.write(null, times.time(trainSize + t), actual[t], pred[t]);
         }
         System.out.println("Predictions saved to " + outFile);
     }
@@ -0,0 +1,156 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the full VARPipelineFull flow for many per-cell CSVs on a work-stealing pool.
+// Each cell is an isolated task: a failure is recorded in the timing file and the rest carry on.
+public class VARBatch {
+
+    static final PrintStream SILENT = new PrintStream(new OutputStream() {
+        @Override public void write(int b) { }
+        @Override public void write(byte[] b, int off, int len) { }
+    });
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java VARBatch <csv_dir|manifest.txt> [out_dir] [threads] [max_cells_in_memory] [csv|gz|bin] [columns|all]");
+            return;
+        }
+        List<Path> cells = listCells(Paths.get(args[0]));
+        Path outDir = Paths.get(args.length > 1 ? args[1] : ".");
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int inFlight = args.length > 3 ? Integer.parseInt(args[3]) : threads * 2;
+        String format = args.length > 4 ? args[4].toLowerCase() : "csv";
+        String columns = args.length > 5 ? args[5] : "all";
+        String predsName = format.equals("gz") ? "VAR_batch_predictions.csv.gz"
+                : format.equals("bin") ? "VAR_batch_predictions.qosp" : "VAR_batch_predictions.csv";
+        Files.createDirectories(outDir);
+        PipelineMetrics.GLOBAL.addAll(VARPipelineFull.METRICS_EXPORT);
+
+        System.out.println("Cells: " + cells.size() + ", threads: " + threads + ", max cells in memory: " + inFlight);
+        long start = System.nanoTime();
+        int failed = run(cells, columns, outDir.resolve(predsName), outDir.resolve("VAR_batch_timing.csv"),
+                outDir.resolve("VAR_batch_errors.csv"), threads, inFlight);
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Done: %d cells (%d failed) in %.2f s -> %.1f cells/s%n", cells.size(), failed, secs, cells.size() / secs);
+        System.out.print("Stage totals over all cells:\n" + PipelineMetrics.GLOBAL.summary());
+        PipelineMetrics.GLOBAL.export();
+    }
+
+    // a directory means every *.csv / *.qosb inside it; anything else is a manifest with one path per line (# comments)
+    static List<Path> listCells(Path input) throws IOException {
+        List<Path> cells = new ArrayList<>();
+        if (Files.isDirectory(input)) {
+            File[] files = input.toFile().listFiles((d, name) -> name.toLowerCase().endsWith(".csv") || name.toLowerCase().endsWith(".qosb"));
+            if (files != null) for (File f : files) cells.add(f.toPath());
+            Collections.sort(cells);
+        } else {
+            Path base = input.toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(input, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                Path p = Paths.get(line);
+                cells.add(p.isAbsolute() || base == null ? p : base.resolve(p));
+            }
+        }
+        return cells;
+    }
+
+    static String cellId(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // columns are resolved against the first cell's header; every cell is then read by those names,
+    // so the shared output has one schema and a cell missing one of them fails on its own.
+    // Each cell's test errors are merged into one ForecastErrors, printed and written to errorsFile at the end.
+    public static int run(List<Path> cells, String columns, Path predictionsFile, Path timingFile, Path errorsFile,
+                          int threads, int inFlight) throws Exception {
+        String[] names = new String[0];
+        if (!cells.isEmpty()) {
+            String[] header = QoSCsvReader.header(cells.get(0).toString());
+            names = QoSCsvReader.names(header, QoSCsvReader.select(header, columns));
+        }
+        String byName = String.join(",", names);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore permits = new Semaphore(inFlight);
+        AtomicInteger failed = new AtomicInteger();
+        ForecastErrors errors = new ForecastErrors(names, VARPipelineFull.EVAL_HORIZONS, null);
+        // predictions go through one shared sink whose writer thread overlaps disk I/O with the cells still running
+        try (PredictionSink preds = PredictionSink.open(predictionsFile.toString(), true);
+             BufferedWriter timing = Files.newBufferedWriter(timingFile, StandardCharsets.UTF_8)) {
+            preds.header("Cell", names, VARPipelineFull.QUANTILES);
+            timing.write("Cell,Status,Rows,P,LoadMs,PipelineMs,WriteMs,TotalMs,Error");
+            timing.write('\n');
+
+            for (Path cell : cells) {
+                permits.acquire();
+                pool.execute(() -> {
+                    try {
+                        if (!runCell(cell, byName, preds, timing, errors)) failed.incrementAndGet();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        errors.write(errorsFile);
+        System.out.println("Test errors over all cells (" + errorsFile.getFileName() + " has them by horizon):");
+        errors.print(System.out);
+        return failed.get();
+    }
+
+    static boolean runCell(Path file, String columns, PredictionSink preds, Writer timing, ForecastErrors errors) {
+        String id = cellId(file);
+        long t0 = System.nanoTime(), t1 = t0, t2 = t0, t3 = t0;
+        int rows = 0, p = 0;
+        String error = null;
+        try {
+            QoSSeries data = QoSCsvReader.load(file.toString(), columns, true, null);
+            rows = data.length();
+            t1 = System.nanoTime();
+            VARPipelineFull.Forecast f = VARPipelineFull.run(data, SILENT);
+            p = f.model.p;
+            t2 = System.nanoTime();
+            preds.write(id, f.test, f.preds, f.bands);
+            synchronized (errors) {
+                errors.merge(f.errors);
+            }
+            t3 = System.nanoTime();
+        } catch (Throwable ex) {
+            error = ex.toString().replace(',', ';').replace('\n', ' ');
+            long now = System.nanoTime();
+            if (t1 == t0) t1 = now;
+            if (t2 == t0) t2 = now;
+            t3 = now;
+        }
+        String line = String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%s\n", id, error == null ? "OK" : "FAILED", rows, p,
+                (t1 - t0) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6, (t3 - t0) / 1e6, error == null ? "" : error);
+        try {
+            synchronized (timing) {
+                timing.write(line);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return error == null;
+    }
+}
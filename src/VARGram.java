@@ -0,0 +1,215 @@
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.util.concurrent.RecursiveTask;
+
+// Cross-products of z_t = [1, y_{t-1}, ..., y_{t-P}, y_t] over t = P..T-1.
+// The leading 1+n*p block is X'X for any p <= P (same sample), the trailing columns hold X'Y and Y'Y.
+// Long series are summed in parallel over chunks of the time axis on the current ForkJoin pool.
+public class VARGram {
+
+    static final int BLOCK = 2048;
+    static final int CHUNK = 32 * BLOCK;              // rows per parallel leaf
+    static final int PARALLEL_MIN_ROWS = 4 * CHUNK;   // shorter series are summed on the calling thread
+
+    final int n, P;
+    int rows;
+    final double[][] G;
+
+    VARGram(int n, int P, int rows) {
+        this.n = n;
+        this.P = P;
+        this.rows = rows;
+        int K = 1 + n * (P + 1);
+        this.G = new double[K][K];
+    }
+
+    public int regressors(int p) { return 1 + n * p; }
+    int yIndex() { return 1 + n * P; }
+
+    public static VARGram compute(QoSSeries data, int P) {
+        int n = data.width(), T = data.length(), off = data.offset();
+        if (T <= P) throw new IllegalArgumentException("series length " + T + " <= max lag " + P);
+        VARGram g = new VARGram(n, P, T - P);
+        double[][] cols = new double[n][];
+        for (int j = 0; j < n; j++) cols[j] = data.column(j);
+
+        // S[a][b] = sum_t y_{t-a} y_{t-b}' for a <= b, m[a] = sum_t y_{t-a}
+        double[][][] Z = T - P >= PARALLEL_MIN_ROWS ? new Partial(cols, off, P, P, T).invoke() : lagZero(cols, off, P, P, T);
+        double[][][][] S = new double[P + 1][P + 1][][];
+        double[][] m = new double[P + 1][];
+        for (int b = 0; b <= P; b++) S[0][b] = Z[b];
+        m[0] = Z[P + 1][0];
+        for (int i = 0; i < n; i++) for (int j = 0; j < i; j++) S[0][0][j][i] = S[0][0][i][j];
+
+        // shifting both lags by one only changes the first and last sample of the sum
+        for (int a = 0; a < P; a++) {
+            int head = off + P - 1 - a, tail = off + T - 1 - a;
+            m[a + 1] = new double[n];
+            for (int i = 0; i < n; i++) m[a + 1][i] = m[a][i] + cols[i][head] - cols[i][tail];
+            for (int b = a; b < P; b++) {
+                int hb = off + P - 1 - b, tb = off + T - 1 - b;
+                double[][] src = S[a][b], dst = new double[n][n];
+                for (int i = 0; i < n; i++)
+                    for (int j = 0; j < n; j++)
+                        dst[i][j] = src[i][j] + cols[i][head] * cols[j][hb] - cols[i][tail] * cols[j][tb];
+                S[a + 1][b + 1] = dst;
+            }
+        }
+
+        double[][] G = g.G;
+        G[0][0] = g.rows;
+        for (int a = 0; a <= P; a++) {
+            int ia = g.lagIndex(a);
+            for (int i = 0; i < n; i++) G[0][ia + i] = G[ia + i][0] = m[a][i];
+            for (int b = a; b <= P; b++) {
+                int ib = g.lagIndex(b);
+                double[][] Sab = S[a][b];
+                for (int i = 0; i < n; i++)
+                    for (int j = 0; j < n; j++)
+                        G[ia + i][ib + j] = G[ib + j][ia + i] = Sab[i][j];
+            }
+        }
+        return g;
+    }
+
+    // Lag-0 sums over rows t in [from, to): Z[b][i][j] = sum_t y_{t,i} y_{t-b,j} (lower triangle only for b = 0)
+    // and Z[P+1][0][i] = sum_t y_{t,i}. Rows before from are only read, so ranges can be summed independently.
+    static double[][][] lagZero(double[][] cols, int off, int P, int from, int to) {
+        int n = cols.length;
+        double[][][] Z = new double[P + 2][][];
+        for (int b = 0; b <= P; b++) Z[b] = new double[n][n];
+        Z[P + 1] = new double[1][n];
+        double[] m = Z[P + 1][0];
+        for (int t0 = from; t0 < to; t0 += BLOCK) {
+            int t1 = Math.min(to, t0 + BLOCK);
+            for (int i = 0; i < n; i++) {
+                double[] ci = cols[i];
+                double sum = 0;
+                for (int t = off + t0; t < off + t1; t++) sum += ci[t];
+                m[i] += sum;
+                for (int b = 0; b <= P; b++) {
+                    double[] Sb = Z[b][i];
+                    for (int j = 0; j < n; j++) {
+                        if (b == 0 && j > i) break;
+                        double[] cj = cols[j];
+                        double s = 0;
+                        for (int t = off + t0; t < off + t1; t++) s += ci[t] * cj[t - b];
+                        Sb[j] += s;
+                    }
+                }
+            }
+        }
+        return Z;
+    }
+
+    // Splits the time axis in halves down to CHUNK rows and adds the partial sums back up the same tree,
+    // so the result does not depend on how many threads took part.
+    static final class Partial extends RecursiveTask<double[][][]> {
+        private static final long serialVersionUID = 1L;
+        final double[][] cols;
+        final int off, P, from, to;
+
+        Partial(double[][] cols, int off, int P, int from, int to) {
+            this.cols = cols;
+            this.off = off;
+            this.P = P;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[][][] compute() {
+            if (to - from <= CHUNK) return lagZero(cols, off, P, from, to);
+            int mid = from + ((to - from) / 2 / BLOCK) * BLOCK;
+            Partial left = new Partial(cols, off, P, from, mid);
+            left.fork();
+            double[][][] r = new Partial(cols, off, P, mid, to).compute();
+            double[][][] l = left.join();
+            for (int b = 0; b < r.length; b++)
+                for (int i = 0; i < r[b].length; i++)
+                    for (int j = 0; j < r[b][i].length; j++) r[b][i][j] += l[b][i][j];
+            return r;
+        }
+    }
+
+    int lagIndex(int lag) { return lag == 0 ? yIndex() : 1 + (lag - 1) * n; }
+
+    // rank-k update with the regression rows t in [from, to) of data (each needs rows t-P..t)
+    public void add(QoSSeries data, int from, int to) { accumulate(data, from, to, 1.0); }
+
+    // rank-k downdate: drops rows previously added
+    public void remove(QoSSeries data, int from, int to) { accumulate(data, from, to, -1.0); }
+
+    void accumulate(QoSSeries data, int from, int to, double sign) {
+        if (from < P) throw new IllegalArgumentException("row " + from + " has fewer than " + P + " lags");
+        int K = G.length;
+        double[] z = new double[K];
+        z[0] = 1.0;
+        for (int t = from; t < to; t++) {
+            for (int lag = 0; lag <= P; lag++) {
+                int idx = lagIndex(lag);
+                for (int j = 0; j < n; j++) z[idx + j] = data.get(t - lag, j);
+            }
+            for (int a = 0; a < K; a++) {
+                double za = sign * z[a];
+                double[] Ga = G[a];
+                for (int b = a; b < K; b++) Ga[b] += za * z[b];
+            }
+        }
+        for (int a = 0; a < K; a++) for (int b = a + 1; b < K; b++) G[b][a] = G[a][b];
+        rows += (int) sign * (to - from);
+    }
+
+    public double[][] xtx(int p) {
+        int K = regressors(p);
+        double[][] out = new double[K][K];
+        for (int r = 0; r < K; r++) System.arraycopy(G[r], 0, out[r], 0, K);
+        return out;
+    }
+
+    public double[][] xty(int p) {
+        int K = regressors(p), y = yIndex();
+        double[][] out = new double[K][n];
+        for (int r = 0; r < K; r++) System.arraycopy(G[r], y, out[r], 0, n);
+        return out;
+    }
+
+    // (Y'Y - B'X'Y) / L, i.e. the residual covariance of the lag-p fit without revisiting the data
+    public double[][] residualCovariance(int p, RealMatrix B) {
+        int K = regressors(p), y = yIndex();
+        double[][] b = B instanceof Array2DRowRealMatrix ? ((Array2DRowRealMatrix) B).getDataRef() : B.getData();
+        double[][] cov = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = G[y + i][y + j];
+                for (int k = 0; k < K; k++) s -= b[k][i] * G[k][y + j];
+                cov[i][j] = cov[j][i] = s / rows;
+            }
+        }
+        return cov;
+    }
+
+    // (Y'Y - B'X'Y - Y'XB + B'X'XB) / L: the residual covariance of any B, e.g. a shrunk one where X'XB != X'Y
+    public double[][] residualCovariance(int p, double[][] b) {
+        int K = regressors(p), y = yIndex();
+        double[][] gb = new double[K][n];   // X'X B
+        for (int k = 0; k < K; k++) {
+            double[] Gk = G[k], out = gb[k];
+            for (int q = 0; q < K; q++) {
+                double g = Gk[q];
+                double[] bq = b[q];
+                for (int j = 0; j < n; j++) out[j] += g * bq[j];
+            }
+        }
+        double[][] cov = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = G[y + i][y + j];
+                for (int k = 0; k < K; k++) s += b[k][i] * (gb[k][j] - G[k][y + j]) - b[k][j] * G[k][y + i];
+                cov[i][j] = cov[j][i] = s / rows;
+            }
+        }
+        return cov;
+    }
+}
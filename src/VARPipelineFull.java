@@ -1,320 +1,561 @@
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
 import org.apache.commons.math3.linear.*;
+import org.apache.commons.math3.special.Erf;
 
 import java.io.*;
 import java.util.*;
+import java.util.stream.IntStream;
 
 public class VARPipelineFull {
 
-    static final int N_VARS = 6;
     static final double TRAIN_FRACTION = 0.7;
     static final int P_MAX = 12;
     static final boolean NORMALIZE = true;
     static final boolean AUTO_ADF_DIFF = true;
     static final boolean SELECT_BY_AIC = true;
+    static final boolean ADF_AUTO_LAG = true;   // AIC search over 0..min(ADF_MAX_LAG, 12*(T/100)^(1/4)); else ADF_LAG
+    static final int ADF_LAG = 1;
+    static final int ADF_MAX_LAG = 24;
+    static final int ADF_MAX_DIFF = 2;
+    static final OlsSolver SOLVER = OlsSolver.CHOLESKY;   // OlsSolver.QR for ill-conditioned data, OlsSolver.ridge(lambda) to shrink;
+                                                          // OlsSolver.ridgePath(SELECT_BY_AIC) / elasticNet(alpha, SELECT_BY_AIC) for wide panels
+    static final long CACHE_BYTES = 64L << 20;
+    static final double[] QUANTILES = {0.025, 0.1, 0.9, 0.975};   // forecast bands written next to each prediction; {} for none
+    static final int BOOTSTRAP_PATHS = 0;   // > 0: bands from this many residual-bootstrap paths instead of normal MSE intervals
+    static final double LOG_SHIFT = Double.NaN;   // model log(x + LOG_SHIFT) (e.g. 1 for counts with zeros); NaN for none
+    static final int TRANSFORM_CHUNK = 1 << 16;   // rows per fit/apply pass of the transforms
+    static final int EVAL_HORIZONS = 48;   // per-horizon error buckets; longer horizons share the last one
+    static final String METRICS_EXPORT = "prom:VAR_metrics.prom,json:VAR_metrics.json";   // see PipelineMetrics.addAll; "" for none
 
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
-            System.out.println("Usage: java -cp \".;commons-math3-3.6.1.jar;opencsv-5.7.1.jar;commons-lang3-3.12.0.jar\" VARPipelineFull <csv_file>");
+            System.out.println("Usage: java -cp \".;commons-math3-3.6.1.jar;opencsv-5.7.1.jar;commons-lang3-3.12.0.jar\" VARPipelineFull <csv_file> [cache_dir|-] [columns|all]");
             return;
         }
 
+        PipelineMetrics.GLOBAL.addAll(METRICS_EXPORT);
         String csvFile = args[0];
-        List<String> times = new ArrayList<>();
-        double[][] data = DataIO.loadCSV(csvFile, times);
+        QoSSeries data = DataIO.loadCSV(csvFile, args.length > 2 ? args[2] : "all");
 
-        System.out.println("Loaded rows: " + data.length);
+        System.out.println("Loaded rows: " + data.length());
 
-        if (AUTO_ADF_DIFF) {
-            System.out.println("Running ADF test per series and differencing non-stationary series...");
-            boolean anyDiff;
-            do {
-                anyDiff = false;
-                for (int j = 0; j < N_VARS; j++) {
-                    double[] col = getColumn(data, j);
-                    ADFTest.Result r = ADFTest.runADF(col, 1);
-                    System.out.printf("Series %d: ADF t-stat = %.5f, approx p ~ %.3f -> %s%n",
-                            j + 1, r.tStatistic, r.pValue, (r.pValue < 0.05 ? "Stationary" : "Non-stationary"));
-                    if (r.pValue >= 0.05) {
-                        data = DataIO.differenceColumn(data, j);
-                        if (!times.isEmpty()) times.remove(0);
-                        anyDiff = true;
-                        System.out.println(" -> Differenced column " + (j + 1) + " and restarted ADF checks (length now " + data.length + ").");
-                        break;
-                    }
-                }
-            } while (anyDiff);
-        }
+        ForecastCache cache = args.length > 1 && !args[1].equals("-") ? new ForecastCache(CACHE_BYTES, java.nio.file.Paths.get(args[1])) : null;
+        Forecast f = run(data, System.out, cache);
 
-        double[][] origMeansStd = null;
-        if (NORMALIZE) {
-            origMeansStd = DataIO.zScoreNormalizeInPlace(data);
-            System.out.println("Normalized data (z-score).");
-        }
-
-        int trainSize = (int)Math.round(data.length * TRAIN_FRACTION);
-        if (trainSize <= P_MAX) trainSize = Math.max(P_MAX + 1, data.length - 1);
-        double[][] train = Arrays.copyOfRange(data, 0, trainSize);
-        double[][] test = Arrays.copyOfRange(data, trainSize, data.length);
-        System.out.println("Train size: " + train.length + ", Test size: " + test.length);
+        System.out.println("\nEvaluation (original scale):");
+        f.errors.print(System.out);
+        f.errors.write(java.nio.file.Paths.get("VAR_errors.csv"));
+        System.out.println("Saved VAR_errors.csv (per horizon)");
 
-        System.out.println("Selecting lag p in 1.." + Math.min(P_MAX, train.length - 1) + " using " + (SELECT_BY_AIC ? "AIC" : "BIC"));
-        int bestP = 1;
-        double bestIC = Double.POSITIVE_INFINITY;
-        VARModel bestModel = null;
-        for (int p = 1; p <= Math.min(P_MAX, train.length - 1); p++) {
-            VARModel model = new VARModel(N_VARS, p);
-            model.fit(train);
-            Residuals resid = model.computeResiduals(train);
-            double aic = IC.computeAIC(resid, train.length, N_VARS, p);
-            double bic = IC.computeBIC(resid, train.length, N_VARS, p);
-            System.out.printf("p=%2d   AIC=%.6f   BIC=%.6f%n", p, aic, bic);
-            double ic = SELECT_BY_AIC ? aic : bic;
-            if (ic < bestIC) {
-                bestIC = ic;
-                bestP = p;
-                bestModel = model;
-            }
-        }
-        System.out.println("Selected p* = " + bestP + " (IC=" + bestIC + ")");
-
-        bestModel.fit(train);
-
-        double[][] preds = bestModel.forecastRecursive(train, test.length);
-
-        if (NORMALIZE && origMeansStd != null) {
-            DataIO.unNormalizeInPlace(test, origMeansStd);
-            DataIO.unNormalizePredictions(preds, origMeansStd);
-            System.out.println("Converted predictions and test back to original scale for metric reporting.");
+        ResultsSaver.saveResults(f.test, f.preds, f.bands, QUANTILES, "VAR_predictions.csv");
+        System.out.println("Saved VAR_predictions.csv");
+        try (PipelineMetrics.Stage s = PipelineMetrics.stage("snapshot")) {
+            f.snapshot.write(java.nio.file.Paths.get("VAR_model.snap"));
+            s.bytes(new File("VAR_model.snap").length());
         }
+        System.out.println("Saved VAR_model.snap");
 
-        System.out.println("\nEvaluation (on processed scale or original if un-normalized):");
-        Metrics.computeMetricsBySeries(test, preds);
+        System.out.print("\nStage timings:\n" + PipelineMetrics.GLOBAL.summary());
+        PipelineMetrics.GLOBAL.export();
+    }
 
-        ResultsSaver.saveResults(times, trainSize, test, preds, "VAR_predictions.csv");
-        System.out.println("Saved VAR_predictions.csv");
+    static class Forecast {
+        QoSSeries test, preds;
+        QoSSeries[] bands;         // one per QUANTILES entry, same shape as preds
+        VARModel model;
+        double ic;
+        SeriesTransform transform; // fitted on the training rows, see SeriesTransform
+        ModelSnapshot snapshot;    // fitted state for forecast-only reuse, see ModelSnapshot
+        ForecastErrors errors;     // test-set errors by horizon (steps ahead of the train end) and series
     }
 
-    static double[] getColumn(double[][] data, int col) {
-        double[] out = new double[data.length];
-        for (int i = 0; i < data.length; i++) out[i] = data[i][col];
-        return out;
+    public static Forecast run(QoSSeries data, PrintStream log) {
+        return run(data, log, null);
     }
 
-    static class DataIO {
-        public static double[][] loadCSV(String filename, List<String> times) throws Exception {
-            List<double[]> rows = new ArrayList<>();
-            try (CSVReader r = new CSVReader(new FileReader(filename))) {
-                String[] line;
-                boolean first = true;
-                while ((line = r.readNext()) != null) {
-                    if (first) { first = false; continue; }
-                    if (line.length < N_VARS + 1) continue;
-                    times.add(line[0]);
-                    double[] row = new double[N_VARS];
-                    for (int j = 0; j < N_VARS; j++) row[j] = Double.parseDouble(line[j+1].trim());
-                    rows.add(row);
-                }
+    // Split, transforms fitted on the training rows (log, ADF differencing, z-score), lag selection and forecast for
+    // one series; predictions and bands come back on the original scale. Progress goes to log. With a cache, a series
+    // seen before (same content and settings) reuses the stored fit and transform parameters.
+    public static Forecast run(QoSSeries data, PrintStream log, ForecastCache cache) {
+        String key = null;
+        ModelSnapshot hit = null;
+        if (cache != null) {
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("cache_lookup")) {
+                s.rows(data.length());
+                key = ForecastCache.key(data);
+                hit = cache.get(key);
             }
-            return rows.toArray(new double[0][0]);
         }
 
-        public static double[][] differenceColumn(double[][] data, int col) {
-            int T = data.length;
-            double[][] res = new double[T - 1][N_VARS];
-            for (int t = 1; t < T; t++) {
-                for (int j = 0; j < N_VARS; j++) {
-                    if (j == col) res[t-1][j] = data[t][j] - data[t-1][j];
-                    else res[t-1][j] = data[t][j];
-                }
+        Forecast f = new Forecast();
+        int trainSize = (int)Math.round(data.length() * TRAIN_FRACTION);
+        if (trainSize <= P_MAX) trainSize = Math.max(P_MAX + 1, data.length() - 1);
+        QoSSeries train = data.slice(0, trainSize);
+        f.test = data.slice(trainSize, data.length());   // stays on the original scale
+        double[] scale = ForecastErrors.naiveScale(train);
+
+        if (hit != null) {
+            log.println("Cache hit " + key.substring(0, 12) + ": p=" + hit.p + ", transforms " + hit.transform);
+            f.transform = hit.transform.fresh();
+            train = SeriesTransform.apply(f.transform, train, TRANSFORM_CHUNK);
+        } else {
+            f.transform = transforms(train, log);
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("normalize")) {
+                s.rows(train.length());
+                SeriesTransform.fit(f.transform, train, TRANSFORM_CHUNK);
+                train = SeriesTransform.apply(f.transform, train, TRANSFORM_CHUNK);
+            }
+            log.println("Transforms fitted on the training rows: " + f.transform);
+        }
+        log.println("Train size: " + train.length() + ", Test size: " + f.test.length());
+
+        if (hit != null) {
+            f.model = hit.model();
+            f.ic = hit.ic;
+        } else {
+            int pMax = Math.min(P_MAX, train.length() - 1);
+            log.println("Selecting lag p in 1.." + pMax + " using " + (SELECT_BY_AIC ? "AIC" : "BIC"));
+            LagSelector sel;
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("lag_select")) {
+                s.rows(train.length());
+                sel = LagSelector.select(train, pMax, SELECT_BY_AIC, log);
+            }
+            log.println("Selected p* = " + sel.bestP + " (IC=" + sel.bestIC + ")");
+            f.model = sel.bestModel;
+            f.ic = sel.bestIC;
+        }
+
+        try (PipelineMetrics.Stage s = PipelineMetrics.stage("forecast")) {
+            s.rows(f.test.length());
+            f.preds = f.model.forecastRecursive(train, f.test.length());
+        }
+        SeriesTransform origin = f.transform.copy();   // positioned at the end of train, where the forecast starts
+        if (QUANTILES.length > 0) {
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("intervals")) {
+                s.rows(f.test.length());
+                f.bands = f.model.quantiles(train, f.preds, QUANTILES, BOOTSTRAP_PATHS, origin);
             }
-            return res;
-        }
-
-        public static double[][] zScoreNormalizeInPlace(double[][] data) {
-            int T = data.length;
-            double[][] ms = new double[N_VARS][2];
-            for (int j = 0; j < N_VARS; j++) {
-                double mean = 0;
-                for (int t = 0; t < T; t++) mean += data[t][j];
-                mean /= T;
-                double var = 0;
-                for (int t = 0; t < T; t++) var += Math.pow(data[t][j] - mean, 2);
-                var /= T;
-                double std = Math.sqrt(var);
-                if (std == 0) std = 1.0;
-                for (int t = 0; t < T; t++) data[t][j] = (data[t][j] - mean) / std;
-                ms[j][0] = mean;
-                ms[j][1] = std;
+        }
+        origin.invert(f.preds);
+        log.println("Inverted the transforms on the predictions (original scale).");
+
+        if (hit != null) {
+            f.snapshot = hit;
+        } else {
+            // the test rows continue the transform stream, so the snapshot's tail and levels are those of the last row
+            QoSSeries test = SeriesTransform.apply(f.transform, f.test.copy(), TRANSFORM_CHUNK);
+            f.snapshot = ModelSnapshot.of(f, train, test);
+            if (cache != null) cache.put(key, f.snapshot);
+        }
+        f.errors = new ForecastErrors(f.test.names(), EVAL_HORIZONS, scale);
+        f.errors.addPath(f.test, f.preds);
+        return f;
+    }
+
+    // log (when LOG_SHIFT is set), differencing to the ADF orders of the training rows and z-score, unfitted;
+    // train is left as it is
+    static SeriesTransform transforms(QoSSeries train, PrintStream log) {
+        List<SeriesTransform> stages = new ArrayList<>();
+        if (!Double.isNaN(LOG_SHIFT)) stages.add(new SeriesTransform.Log(train.width(), LOG_SHIFT));
+        if (AUTO_ADF_DIFF) {
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("adf")) {
+                s.rows(train.length());
+                QoSSeries probe = train.copy();
+                for (SeriesTransform t : stages) probe = t.apply(probe);
+                stages.add(new SeriesTransform.Difference(differenceToStationary(probe, log)));
             }
-            return ms;
         }
+        if (NORMALIZE) stages.add(new SeriesTransform.ZScore(train.width()));
+        return new SeriesTransform.Chain(stages.toArray(new SeriesTransform[0]));
+    }
 
-        public static void unNormalizeInPlace(double[][] data, double[][] ms) {
-            int T = data.length;
-            for (int j = 0; j < N_VARS; j++) {
-                double mean = ms[j][0], std = ms[j][1];
-                for (int t = 0; t < T; t++) data[t][j] = data[t][j] * std + mean;
+    // Tests every column concurrently, then differences all non-stationary columns in one step (they share the
+    // dropped first row) and retests only those. Returns how many times each column was differenced.
+    public static int[] differenceToStationary(QoSSeries data, PrintStream log) {
+        log.println("Running ADF test per series and differencing non-stationary series...");
+        int n = data.width();
+        int[] order = new int[n];
+        int[] pending = new int[n];
+        for (int j = 0; j < n; j++) pending[j] = j;
+        while (pending.length > 0 && data.length() >= 10) {
+            ADFTest.Result[] rs = ADFTest.runAll(data, pending);
+            int[] next = new int[pending.length];
+            int m = 0;
+            for (int i = 0; i < pending.length; i++) {
+                int j = pending[i];
+                ADFTest.Result r = rs[i];
+                log.printf("Series %d: ADF t-stat = %.5f (lag %d), MacKinnon p = %.4f -> %s%n",
+                        j + 1, r.tStatistic, r.lag, r.pValue, (r.pValue < 0.05 ? "Stationary" : "Non-stationary"));
+                if (r.pValue < 0.05) continue;
+                if (order[j] < ADF_MAX_DIFF) next[m++] = j;
+                else log.println(" -> Series " + (j + 1) + " left as is after " + ADF_MAX_DIFF + " differences.");
+            }
+            pending = Arrays.copyOf(next, m);
+            if (m == 0) break;
+            data.difference(pending);
+            StringBuilder cols = new StringBuilder();
+            for (int j : pending) {
+                order[j]++;
+                cols.append(cols.length() == 0 ? "" : ", ").append(j + 1);
             }
+            log.println(" -> Differenced column(s) " + cols + " and retesting them (length now " + data.length() + ").");
         }
+        return order;
+    }
 
-        public static void unNormalizePredictions(double[][] preds, double[][] ms) {
-            for (int j = 0; j < N_VARS; j++) {
-                double mean = ms[j][0], std = ms[j][1];
-                for (int t = 0; t < preds.length; t++) preds[t][j] = preds[t][j] * std + mean;
+    static class DataIO {
+        // columns: "all" (every column after the timestamp) or a list of header names / indexes, see QoSCsvReader.select
+        public static QoSSeries loadCSV(String filename, String columns) throws Exception {
+            QoSCsvReader.Stats stats = new QoSCsvReader.Stats();
+            QoSSeries s;
+            try (PipelineMetrics.Stage st = PipelineMetrics.stage("load")) {
+                s = QoSCsvReader.load(filename, columns, true, stats);
+                st.rows(stats.rows).bytes(stats.bytes);
             }
+            System.out.println(stats);
+            return s;
         }
     }
 
     static class ADFTest {
-        static class Result { double tStatistic; double pValue; Result(double t, double p){ this.tStatistic = t; this.pValue = p; } }
-
-        public static Result runADF(double[] y, int lag) {
-            int T = y.length;
-            if (T < 10) return new Result(0.0, 1.0);
-            double[] dy = new double[T-1];
-            for (int i = 1; i < T; i++) dy[i-1] = y[i] - y[i-1];
-
-            int rows = T - 1 - lag;
-            if (rows <= 3) return new Result(0.0, 1.0);
-
-            double[][] X = new double[rows][3 + lag];
-            double[] Y = new double[rows];
-            for (int t = lag; t < T - 1; t++) {
-                int r = t - lag;
-                Y[r] = dy[t];
-                X[r][0] = 1.0;
-                X[r][1] = t + 1;
-                X[r][2] = y[t];
-                for (int l = 1; l <= lag; l++) X[r][2 + l] = dy[t - l];
+        static final int BLOCK = 4096;
+
+        // MacKinnon (1994) response surface, constant + trend, one series (the values statsmodels' mackinnonp uses)
+        static final double TAU_MAX = 0.7, TAU_MIN = -16.18, TAU_STAR = -2.89;
+        static final double[] SMALLP = {3.2512, 1.6047, 0.049588};
+        static final double[] LARGEP = {2.5261, 0.61654, -0.37956, -0.060285};
+
+        static class Result {
+            double tStatistic; double pValue; int lag;
+            Result(double t, double p, int lag){ this.tStatistic = t; this.pValue = p; this.lag = lag; }
+        }
+
+        // Schwert's rule for the largest augmentation lag worth searching
+        static int maxLag(int T) {
+            return Math.min(ADF_MAX_LAG, (int) Math.floor(12.0 * Math.pow(T / 100.0, 0.25)));
+        }
+
+        // dy_t on [1, trend, y_t, dy_{t-1}..dy_{t-lag}] for t = lag..T-2
+        public static Result runADF(double[] y, int off, int T, int lag) {
+            if (T < 10 || T - 1 - lag <= 3 + lag) return new Result(0.0, 1.0, lag);
+            double[] fit = solve(gram(y, off, T, lag), lag, lag);
+            if (fit == null) return new Result(Double.NaN, 0.0, lag);
+            double tstat = tStatistic(fit, T - 1 - lag, 3 + lag);
+            return new Result(tstat, mackinnonP(tstat), lag);
+        }
+
+        // scores lags 0..maxLag by AIC on the common sample of the largest one, then refits the winner on its own sample
+        public static Result runADFAuto(double[] y, int off, int T, int maxLag) {
+            maxLag = Math.min(maxLag, (T - 6) / 2);
+            if (T < 10 || maxLag < 0) return new Result(0.0, 1.0, 0);
+            double[][] G = gram(y, off, T, maxLag);
+            int rows = T - 1 - maxLag, best = -1;
+            double bestAIC = Double.POSITIVE_INFINITY;
+            double[] bestFit = null;
+            for (int l = 0; l <= maxLag; l++) {
+                double[] fit = solve(G, l, maxLag);
+                if (fit == null) continue;
+                double aic = rows * Math.log(Math.max(fit[0], Double.MIN_NORMAL) / rows) + 2.0 * (3 + l);
+                if (aic < bestAIC) { bestAIC = aic; best = l; bestFit = fit; }
             }
+            if (best < 0) return new Result(Double.NaN, 0.0, 0);
+            if (best < maxLag) return runADF(y, off, T, best);
+            double tstat = tStatistic(bestFit, rows, 3 + best);
+            return new Result(tstat, mackinnonP(tstat), best);
+        }
+
+        // tests the listed columns concurrently
+        public static Result[] runAll(QoSSeries data, int[] cols) {
+            int off = data.offset(), T = data.length();
+            Result[] out = new Result[cols.length];
+            IntStream.range(0, cols.length).parallel().forEach(i -> out[i] = ADF_AUTO_LAG
+                    ? runADFAuto(data.column(cols[i]), off, T, maxLag(T))
+                    : runADF(data.column(cols[i]), off, T, ADF_LAG));
+            return out;
+        }
 
-            RealMatrix Xmat = MatrixUtils.createRealMatrix(X);
-            RealVector Yvec = new ArrayRealVector(Y);
-            RealMatrix XtX = Xmat.transpose().multiply(Xmat);
-            DecompositionSolver solver = new SingularValueDecomposition(XtX).getSolver();
-            RealVector coef = solver.solve(Xmat.transpose().operate(Yvec));
-            RealVector resid = Yvec.subtract(Xmat.operate(coef));
+        static double tStatistic(double[] fit, int rows, int k) {
+            double s2 = fit[0] / (rows - k);
+            return fit[1] / Math.sqrt(Math.abs(fit[2] * s2));
+        }
 
-            int df = Y.length - X[0].length;
-            double s2 = resid.dotProduct(resid) / df;
-            RealMatrix cov = new LUDecomposition(XtX).getSolver().getInverse();
-            double stderrGamma = Math.sqrt(Math.abs(cov.getEntry(2,2) * s2));
-            double tstat = coef.getEntry(2) / stderrGamma;
+        static double mackinnonP(double t) {
+            if (t > TAU_MAX) return 1.0;
+            if (t < TAU_MIN) return 0.0;
+            double[] c = t <= TAU_STAR ? SMALLP : LARGEP;
+            double v = 0;
+            for (int i = c.length - 1; i >= 0; i--) v = v * t + c[i];
+            return 0.5 * Erf.erfc(-v / Math.sqrt(2.0));
+        }
 
-            double pApprox = approximatePvalueADF(tstat);
-            return new Result(tstat, pApprox);
+        // Gram of [1, trend, y_t, dy_{t-1}..dy_{t-L}, dy_t] over t = L..T-2, trend and level centred (gamma's t-stat is unchanged).
+        // Every block is a dot product against a shifted dy, so only lag-0 dy products are summed; the rest follow by shifting.
+        static double[][] gram(double[] y, int off, int T, int L) {
+            int m = 4 + L, t0 = L, t1 = T - 2;
+            double[][] G = new double[m][m];
+            double mean = 0;
+            for (int i = off; i < off + T; i++) mean += y[i];
+            mean /= T;
+            double invT = 1.0 / T;
+            double sT = 0, sTT = 0, sY = 0, sYY = 0, sTY = 0;
+            double[] s1 = new double[L + 1], sTD = new double[L + 1], sYD = new double[L + 1], sDD = new double[L + 1];
+            for (int b0 = t0; b0 <= t1; b0 += BLOCK) {
+                int b1 = Math.min(t1 + 1, b0 + BLOCK);
+                for (int t = b0; t < b1; t++) {
+                    double tau = (t + 1) * invT - 0.5, yc = y[off + t] - mean;
+                    sT += tau; sTT += tau * tau; sY += yc; sYY += yc * yc; sTY += tau * yc;
+                }
+                for (int a = 0; a <= L; a++) {
+                    double c1 = 0, cT = 0, cY = 0, cD = 0;
+                    int o = off - a;
+                    for (int t = b0; t < b1; t++) {
+                        double d = y[o + t + 1] - y[o + t], d0 = y[off + t + 1] - y[off + t];
+                        c1 += d;
+                        cT += ((t + 1) * invT - 0.5) * d;
+                        cY += (y[off + t] - mean) * d;
+                        cD += d0 * d;
+                    }
+                    s1[a] += c1; sTD[a] += cT; sYD[a] += cY; sDD[a] += cD;
+                }
+            }
+            G[0][0] = t1 - t0 + 1;
+            G[0][1] = sT; G[0][2] = sY; G[1][1] = sTT; G[1][2] = sTY; G[2][2] = sYY;
+            for (int a = 0; a <= L; a++) {
+                int i = dyIndex(a, L);
+                G[0][i] = s1[a]; G[1][i] = sTD[a]; G[2][i] = sYD[a];
+                G[dyIndex(0, L)][i] = sDD[a];
+                G[i][dyIndex(0, L)] = sDD[a];
+            }
+            // S[a+1][b+1] = S[a][b] + dy_{t0-1-a} dy_{t0-1-b} - dy_{t1-a} dy_{t1-b}
+            for (int a = 0; a < L; a++) {
+                for (int b = a; b < L; b++) {
+                    double v = G[dyIndex(a, L)][dyIndex(b, L)]
+                            + (y[off + t0 - a] - y[off + t0 - a - 1]) * (y[off + t0 - b] - y[off + t0 - b - 1])
+                            - (y[off + t1 - a + 1] - y[off + t1 - a]) * (y[off + t1 - b + 1] - y[off + t1 - b]);
+                    G[dyIndex(a + 1, L)][dyIndex(b + 1, L)] = v;
+                    G[dyIndex(b + 1, L)][dyIndex(a + 1, L)] = v;
+                }
+            }
+            for (int i = 0; i < 3; i++)
+                for (int k = i + 1; k < m; k++) G[k][i] = G[i][k];
+            return G;
         }
 
-        private static double approximatePvalueADF(double tstat) {
-            double t = tstat;
-            if (t <= -3.43) return 0.01;
-            if (t <= -2.86) return 0.05;
-            if (t <= -2.57) return 0.10;
-            return 0.20;
+        // dy_t is the response (last slot); dy_{t-a} for a >= 1 follows the three deterministic/level regressors
+        static int dyIndex(int a, int L) { return a == 0 ? 3 + L : 2 + a; }
+
+        // lag-`lag` regression from the leading block of a Gram built for L >= lag: {rss, gamma, (X'X)^-1[2][2]},
+        // via one Cholesky factorisation of the diagonally scaled X'X; null if it is not positive definite
+        static double[] solve(double[][] G, int lag, int L) {
+            int k = 3 + lag, r = 3 + L;
+            double[] d = new double[k];
+            for (int i = 0; i < k; i++) {
+                if (!(G[i][i] > 0)) return null;
+                d[i] = 1.0 / Math.sqrt(G[i][i]);
+            }
+            double[][] C = new double[k][k];
+            for (int i = 0; i < k; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double v = G[i][j] * d[i] * d[j];
+                    for (int q = 0; q < j; q++) v -= C[i][q] * C[j][q];
+                    if (i == j) {
+                        if (v <= 1e-12) return null;
+                        C[i][i] = Math.sqrt(v);
+                    } else {
+                        C[i][j] = v / C[j][j];
+                    }
+                }
+            }
+            // z = C^-1 b gives rss = y'y - |z|^2; w = C^-1 e_2 gives the inverse diagonal |w|^2
+            double[] z = new double[k], w = new double[k];
+            double zz = 0, ww = 0;
+            for (int i = 0; i < k; i++) {
+                double v = G[i][r] * d[i], u = i == 2 ? 1.0 : 0.0;
+                for (int q = 0; q < i; q++) { v -= C[i][q] * z[q]; u -= C[i][q] * w[q]; }
+                z[i] = v / C[i][i];
+                w[i] = u / C[i][i];
+                zz += z[i] * z[i];
+                ww += w[i] * w[i];
+            }
+            double[] coef = new double[k];
+            for (int i = k - 1; i >= 0; i--) {
+                double v = z[i];
+                for (int q = i + 1; q < k; q++) v -= C[q][i] * coef[q];
+                coef[i] = v / C[i][i];
+            }
+            return new double[]{Math.max(G[r][r] - zz, 0.0), coef[2] * d[2], ww * d[2] * d[2]};
         }
     }
 
     static class VARModel {
         int n; int p;
         RealMatrix B;
+        double[] coef;
+        double df, lambda;   // effective slope count for the IC; lambda > 0 for shrunk fits
+        OlsSolver solver = SOLVER;
 
         VARModel(int nVars, int lag) { this.n = nVars; this.p = lag; }
 
-        public void fit(double[][] data) {
-            int T = data.length;
-            int rows = T - p;
-            double[][] X = new double[rows][1 + n * p];
-            double[][] Y = new double[rows][n];
+        public void fit(QoSSeries data) {
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("fit")) {
+                s.rows(data.length());
+                set(solver.fit(data, p));
+            }
+        }
 
-            for (int t = p; t < T; t++) {
-                int r = t - p;
-                X[r][0] = 1.0;
-                for (int lag = 1; lag <= p; lag++) {
-                    double[] past = data[t - lag];
-                    for (int j = 0; j < n; j++) X[r][(lag-1)*n + 1 + j] = past[j];
-                }
-                System.arraycopy(data[t], 0, Y[r], 0, n);
+        // solves the lag-p normal equations held in the leading block of a Gram built for any lag >= p
+        public void fit(VARGram g) {
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("fit")) {
+                s.rows(g.rows);
+                set(solver.fit(g, p));
             }
+        }
 
-            RealMatrix Xmat = MatrixUtils.createRealMatrix(X);
-            RealMatrix Ymat = MatrixUtils.createRealMatrix(Y);
-            RealMatrix XtX = Xmat.transpose().multiply(Xmat);
+        void set(OlsSolver.Fit f) {
+            set(f.B);
+            df = f.df;
+            lambda = f.lambda;
+        }
 
-            DecompositionSolver solver;
-            try {
-                solver = new LUDecomposition(XtX).getSolver();
-                if (!solver.isNonSingular()) throw new Exception("singular");
-            } catch (Exception ex) {
-                solver = new SingularValueDecomposition(XtX).getSolver();
-            }
-            this.B = solver.solve(Xmat.transpose().multiply(Ymat));
+        void set(double[][] b) {
+            this.B = new Array2DRowRealMatrix(b, false);
+            this.coef = ForecastKernel.layout(B, n, p);
         }
 
-        public Residuals computeResiduals(double[][] data) {
-            int T = data.length;
+        public ForecastKernel kernel() { return new ForecastKernel(n, p, coef); }
+
+        public Residuals computeResiduals(QoSSeries data) {
+            int T = data.length();
             int rows = T - p;
-            double[][] e = new double[rows][n];
+            double[][] e = new double[n][rows];
+            ForecastKernel k = kernel();
+            double[] yhat = new double[n];
             for (int t = p; t < T; t++) {
-                double[] x = new double[1 + n*p];
-                x[0] = 1.0;
-                for (int lag = 1; lag <= p; lag++)
-                    for (int j = 0; j < n; j++)
-                        x[(lag-1)*n + 1 + j] = data[t - lag][j];
-                double[] yhat = B.transpose().operate(x);
-                for (int j = 0; j < n; j++) e[t-p][j] = data[t][j] - yhat[j];
+                k.predictAt(data, t, yhat);
+                for (int j = 0; j < n; j++) e[j][t-p] = data.get(t, j) - yhat[j];
             }
             return new Residuals(e);
         }
 
-        public double[][] forecastRecursive(double[][] train, int steps) {
-            if (train.length < p) throw new IllegalArgumentException("train length < p");
-            Deque<double[]> window = new ArrayDeque<>();
-            for (int i = train.length - p; i < train.length; i++) window.addLast(Arrays.copyOf(train[i], n));
-            double[][] preds = new double[steps][n];
-            for (int t = 0; t < steps; t++) {
-                double[] x = new double[1 + n*p];
-                x[0] = 1.0;
-                double[][] arr = window.toArray(new double[0][0]);
-                for (int lag = 1; lag <= p; lag++)
-                    for (int j = 0; j < n; j++)
-                        x[(lag-1)*n + 1 + j] = arr[arr.length - lag][j];
-                double[] yhat = B.transpose().operate(x);
-                preds[t] = yhat;
-                window.pollFirst();
-                window.addLast(Arrays.copyOf(yhat, n));
-            }
+        public QoSSeries forecastRecursive(QoSSeries train, int steps) {
+            QoSSeries preds = QoSSeries.allocate(train.names, steps);
+            forecastInto(train, preds);
             return preds;
         }
+
+        // MSE(1) .. MSE(h) of the recursive forecast for residual covariance sigma (n x n), from the VMA form
+        public double[][][] mse(double[][] sigma, int h) {
+            return ForecastIntervals.mse(ForecastIntervals.vma(coef, n, p, h), sigma);
+        }
+
+        // quantile bands around preds, the forecast following train: normal ones from the MSE diagonal with the
+        // in-sample residual covariance, or with paths > 0 quantiles of that many residual-bootstrap paths
+        public QoSSeries[] quantiles(QoSSeries train, QoSSeries preds, double[] qs, int paths) {
+            return quantiles(train, preds, qs, paths, null);
+        }
+
+        // same on the input scale of t, a transform positioned after train (left as it is)
+        public QoSSeries[] quantiles(QoSSeries train, QoSSeries preds, double[] qs, int paths, SeriesTransform t) {
+            Residuals r = computeResiduals(train);
+            if (paths > 0) return ForecastIntervals.bootstrap(coef, p, train, r.e, preds.length(), paths, qs, t);
+            double[][] sigma = IC.covMatrix(r.e).getData();
+            if (t == null) return ForecastIntervals.analytic(preds, mse(sigma, preds.length()), qs);
+            return ForecastIntervals.analytic(preds, ForecastIntervals.vma(coef, n, p, preds.length()), sigma, qs, t);
+        }
+
+        // fills every row of out (caller-owned, n columns) with the recursive forecast following train
+        public void forecastInto(QoSSeries train, QoSSeries out) {
+            if (train.length() < p) throw new IllegalArgumentException("train length < p");
+            ForecastKernel k = kernel();
+            k.reset(train, train.length());
+            k.forecast(out.length(), out, new double[n]);
+        }
     }
 
+    // residuals stored column-major: e[series][row]
     static class Residuals { double[][] e; Residuals(double[][] e){ this.e = e; } }
 
+    static class LagSelector {
+        int bestP;
+        double bestIC = Double.POSITIVE_INFINITY;
+        VARModel bestModel;
+
+        // one Gram at pMax; every p <= pMax is solved from its sub-block on the common sample
+        public static LagSelector select(QoSSeries train, int pMax, boolean byAIC, PrintStream log) {
+            int n = train.width();
+            VARGram g;
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("gram")) {
+                s.rows(train.length());
+                g = VARGram.compute(train, pMax);
+            }
+            LagSelector sel = new LagSelector();
+            for (int p = 1; p <= pMax; p++) {
+                VARModel model = new VARModel(n, p);
+                model.fit(g);
+                RealMatrix cov = MatrixUtils.createRealMatrix(model.lambda > 0
+                        ? g.residualCovariance(p, ((Array2DRowRealMatrix) model.B).getDataRef())
+                        : g.residualCovariance(p, model.B));
+                double aic = IC.computeAIC(cov, g.rows, model.df);
+                double bic = IC.computeBIC(cov, g.rows, model.df);
+                if (log != null) {
+                    if (model.lambda > 0)
+                        log.printf("p=%2d   AIC=%.6f   BIC=%.6f   lambda=%.4g   df=%.1f%n", p, aic, bic, model.lambda, model.df);
+                    else
+                        log.printf("p=%2d   AIC=%.6f   BIC=%.6f%n", p, aic, bic);
+                }
+                double ic = byAIC ? aic : bic;
+                if (ic < sel.bestIC) {
+                    sel.bestIC = ic;
+                    sel.bestP = p;
+                    sel.bestModel = model;
+                }
+            }
+            if (sel.bestModel != null && sel.bestModel.solver.fitsFromData()) {
+                if (log != null) log.println("Refitting p=" + sel.bestP + " from the series (" + sel.bestModel.solver + ")");
+                sel.bestModel.fit(train);
+            }
+            return sel;
+        }
+    }
+
     static class IC {
         public static double computeAIC(Residuals resid, int T, int N, int p) {
-            int L = resid.e.length;
-            RealMatrix cov = covMatrix(resid.e);
+            return computeAIC(covMatrix(resid.e), resid.e[0].length, N, p);
+        }
+        public static double computeBIC(Residuals resid, int T, int N, int p) {
+            return computeBIC(covMatrix(resid.e), resid.e[0].length, N, p);
+        }
+        public static double computeAIC(RealMatrix cov, int L, int N, int p) {
+            return computeAIC(cov, L, (double) p * N * N);
+        }
+        public static double computeBIC(RealMatrix cov, int L, int N, int p) {
+            return computeBIC(cov, L, (double) p * N * N);
+        }
+        // df: effective number of slope coefficients over all equations (p*N*N for least squares, less when shrunk)
+        public static double computeAIC(RealMatrix cov, int L, double df) {
             double logdet = safeLogDet(cov);
-            double penalty = (2.0 * p * N * N) / (double)L;
+            double penalty = (2.0 * df) / (double)L;
             return logdet + penalty;
         }
-        public static double computeBIC(Residuals resid, int T, int N, int p) {
-            int L = resid.e.length;
-            RealMatrix cov = covMatrix(resid.e);
+        public static double computeBIC(RealMatrix cov, int L, double df) {
             double logdet = safeLogDet(cov);
-            double penalty = (Math.log(L) * p * N * N) / (double)L;
+            double penalty = (Math.log(L) * df) / (double)L;
             return logdet + penalty;
         }
-        private static RealMatrix covMatrix(double[][] e) {
-            int L = e.length, N = e[0].length;
-            RealMatrix M = MatrixUtils.createRealMatrix(N, N);
+        static RealMatrix covMatrix(double[][] e) {
+            int N = e.length, L = e[0].length;
+            double[][] M = new double[N][N];
             double[] mean = new double[N];
-            for (int t = 0; t < L; t++) for (int i = 0; i < N; i++) mean[i] += e[t][i];
-            for (int i = 0; i < N; i++) mean[i] /= L;
-            for (int t = 0; t < L; t++) for (int i = 0; i < N; i++) for (int j = 0; j < N; j++)
-                M.addToEntry(i, j, (e[t][i] - mean[i]) * (e[t][j] - mean[j]));
-            return M.scalarMultiply(1.0 / L);
+            for (int i = 0; i < N; i++) {
+                for (int t = 0; t < L; t++) mean[i] += e[i][t];
+                mean[i] /= L;
+            }
+            for (int i = 0; i < N; i++) for (int j = 0; j <= i; j++) {
+                double[] ei = e[i], ej = e[j];
+                double mi = mean[i], mj = mean[j], sum = 0;
+                for (int t = 0; t < L; t++) sum += (ei[t] - mi) * (ej[t] - mj);
+                M[i][j] = M[j][i] = sum / L;
+            }
+            return MatrixUtils.createRealMatrix(M);
         }
         private static double safeLogDet(RealMatrix M) {
             double det;
@@ -324,45 +565,21 @@ public class VARPipelineFull {
         }
     }
 
-    static class Metrics {
-        public static void computeMetricsBySeries(double[][] actual, double[][] pred) {
-            int T = actual.length, N = actual[0].length;
-            for (int j = 0; j < N; j++) {
-                double sumAbs = 0, sumSq = 0, sumPct = 0;
-                int validPct = 0;
-                for (int t = 0; t < T; t++) {
-                    double a = actual[t][j], p = pred[t][j];
-                    double err = a - p;
-                    sumAbs += Math.abs(err);
-                    sumSq += err*err;
-                    if (a != 0) { sumPct += Math.abs(err / a); validPct++; }
-                }
-                double mae = sumAbs / T;
-                double rmse = Math.sqrt(sumSq / T);
-                double mape = validPct > 0 ? (sumPct / validPct) * 100.0 : Double.NaN;
-                System.out.printf("Series %d -> MAE: %.6f, RMSE: %.6f, MAPE: %s%n", j+1, mae, rmse, (Double.isNaN(mape) ? "NaN" : String.format("%.3f%%", mape)));
-            }
+    static class ResultsSaver {
+        // format follows the file name (see PredictionSink): .csv, .csv.gz or .qosp
+        public static void saveResults(QoSSeries actual, QoSSeries pred, String file) throws Exception {
+            saveResults(actual, pred, null, new double[0], file);
         }
-    }
 
-    static class ResultsSaver {
-        public static void saveResults(List<String> times, int trainSize, double[][] actual, double[][] pred, String file) throws Exception {
-            try (CSVWriter w = new CSVWriter(new FileWriter(file))) {
-                String[] header = new String[1 + N_VARS*2];
-                header[0] = "Time";
-                String[] names = {"MOS","BW","JIT","RTT","DJB","SNR"};
-                for (int i = 0; i < N_VARS; i++) { header[1 + i*2] = names[i] + "_actual"; header[1 + i*2 + 1] = names[i] + "_pred"; }
-                w.writeNext(header);
-                for (int t = 0; t < actual.length; t++) {
-                    String[] row = new String[1 + N_VARS*2];
-                    int timeIdx = trainSize + t;
-                    row[0] = (times.size() > timeIdx ? times.get(timeIdx) : Integer.toString(timeIdx));
-                    for (int j = 0; j < N_VARS; j++) {
-                        row[1 + j*2] = Double.toString(actual[t][j]);
-                        row[1 + j*2 + 1] = Double.toString(pred[t][j]);
-                    }
-                    w.writeNext(row);
+        // with quantile bands (one per quantile) as extra columns after each prediction; bands may be null
+        public static void saveResults(QoSSeries actual, QoSSeries pred, QoSSeries[] bands, double[] quantiles,
+                                       String file) throws Exception {
+            try (PipelineMetrics.Stage s = PipelineMetrics.stage("save").rows(actual.length())) {
+                try (PredictionSink sink = PredictionSink.open(file, false)) {
+                    sink.header(null, actual.names(), bands == null ? new double[0] : quantiles);
+                    sink.write(null, actual, pred, bands);
                 }
+                s.bytes(new File(file).length());
             }
         }
     }